@@ -0,0 +1,188 @@
+package com.transitfeeds.gtfs;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Compares IdDictionary against the HashMap<String, Integer> that GtfsParser
+ * used to map GTFS ids, with keys shaped like the trip ids of a large feed.
+ * For each it measures the time to add every key, the time to look every key
+ * up again in a random order with fresh copies of the keys, and the heap
+ * retained once the keys are added, including the chars of the keys that
+ * the HashMap keeps.
+ *
+ * Build it against the classes in src and run it with a fixed heap so that
+ * runs are comparable, for example:
+ *
+ * java -Xms4g -Xmx4g -XX:+UseSerialGC -cp out:bench-out com.transitfeeds.gtfs.IdDictionaryBenchmark 2400000 5
+ *
+ * The arguments are the number of distinct keys and the number of measured
+ * rounds. Two rounds of each are run first and not reported, to let the JIT
+ * compile the code being measured.
+ */
+public class IdDictionaryBenchmark {
+    private static final int WARMUP_ROUNDS = 2;
+
+    // keeps the JIT from discarding lookups whose results are not used
+    private static long sSink = 0;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2400000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        String[] keys = createKeys(count, new Random(42));
+        String[] lookups = shuffle(keys, new Random(43));
+
+        System.err.println(String.format("%d keys, %d rounds after %d warmup rounds", count, rounds, WARMUP_ROUNDS));
+
+        for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+            Result map = runHashMap(keys, lookups);
+            Result dictionary = runDictionary(keys, lookups);
+
+            if (round >= 0) {
+                System.err.println(String.format("Round %d: HashMap %s", round + 1, map));
+                System.err.println(String.format("Round %d: IdDictionary %s", round + 1, dictionary));
+            }
+        }
+
+        if (sSink == 42) {
+            System.err.println();
+        }
+    }
+
+    private static Result runHashMap(String[] keys, String[] lookups) {
+        Result result = new Result();
+        lookups = copy(lookups);
+        long before = usedMemory();
+        long start = System.nanoTime();
+
+        // as getMappedId did before IdDictionary replaced it
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+
+        for (String key : keys) {
+            // a new String for each row, as CsvReader returns
+            key = new String(key.toCharArray());
+            Integer id = map.get(key);
+
+            if (id == null) {
+                map.put(key, map.size() + 1);
+            }
+        }
+
+        result.mAddSeconds = (System.nanoTime() - start) / 1e9;
+
+        // measured while the lookup keys are still in use, so that only the
+        // structure itself differs from before
+        result.mRetainedBytes = usedMemory() - before;
+        start = System.nanoTime();
+
+        long sum = 0;
+
+        for (String key : lookups) {
+            sum += map.get(key);
+        }
+
+        result.mGetSeconds = (System.nanoTime() - start) / 1e9;
+        sSink += sum + map.size();
+
+        return result;
+    }
+
+    private static Result runDictionary(String[] keys, String[] lookups) {
+        Result result = new Result();
+        lookups = copy(lookups);
+        long before = usedMemory();
+        long start = System.nanoTime();
+
+        IdDictionary dictionary = new IdDictionary();
+
+        for (String key : keys) {
+            dictionary.getOrAdd(new String(key.toCharArray()));
+        }
+
+        result.mAddSeconds = (System.nanoTime() - start) / 1e9;
+
+        // measured while the lookup keys are still in use, so that only the
+        // structure itself differs from before
+        result.mRetainedBytes = usedMemory() - before;
+        start = System.nanoTime();
+
+        long sum = 0;
+
+        for (String key : lookups) {
+            sum += dictionary.get(key);
+        }
+
+        result.mGetSeconds = (System.nanoTime() - start) / 1e9;
+        sSink += sum + dictionary.size();
+
+        return result;
+    }
+
+    /**
+     * Creates distinct keys such as IDFM:TRANSDEV_AMV:58512-C00674-2019_05.
+     * Each key is a new String, as the ids read from a file would be.
+     */
+    private static String[] createKeys(int count, Random random) {
+        String[] operators = { "RATP", "SNCF", "TRANSDEV_AMV", "KEOLIS_CIF", "STILE", "CEAT" };
+        String[] keys = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            keys[i] = String.format("IDFM:%s:%d-C%05d-%d_%02d", operators[random.nextInt(operators.length)], i, random.nextInt(100000), 2019 + random.nextInt(2), 1 + random.nextInt(12));
+        }
+
+        return keys;
+    }
+
+    private static String[] shuffle(String[] keys, Random random) {
+        String[] shuffled = copy(keys);
+
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String key = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = key;
+        }
+
+        return shuffled;
+    }
+
+    /**
+     * Returns new Strings with the same chars as keys. Each run looks up its
+     * own copies, as the parser looks up the ids of each row it reads:
+     * a String caches its hash code, so a HashMap would otherwise not hash
+     * keys that an earlier run had looked up, while IdDictionary hashes the
+     * chars every time. The copies also keep lookups from succeeding on
+     * identity alone.
+     */
+    private static String[] copy(String[] keys) {
+        String[] copies = new String[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+            copies[i] = new String(keys[i].toCharArray());
+        }
+
+        return copies;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class Result {
+        double mAddSeconds;
+        double mGetSeconds;
+        long mRetainedBytes;
+
+        @Override
+        public String toString() {
+            return String.format("add %.3fs, get %.3fs, retained %.1f MB", mAddSeconds, mGetSeconds, mRetainedBytes / (1024.0 * 1024.0));
+        }
+    }
+}
@@ -228,6 +228,21 @@ public class CsvReader {
 		this(new InputStreamReader(inputStream, charset));
 	}
 
+	/**
+	 * Constructs a {@link com.csvreader.CsvReader CsvReader} object without a
+	 * character source, for subclasses that tokenize their data source
+	 * themselves.
+	 *
+	 * @param delimiter
+	 *            The character to use as the column delimiter.
+	 */
+	protected CsvReader(char delimiter) {
+		this.userSettings.Delimiter = delimiter;
+		initialized = true;
+
+		isQualified = new boolean[values.length];
+	}
+
 	public boolean getCaptureRawRecord() {
 		return userSettings.CaptureRawRecord;
 	}
@@ -556,6 +571,305 @@ public class CsvReader {
 		return get(getIndex(headerName));
 	}
 
+	/**
+	 * Returns the current column value for a given column index without
+	 * necessarily creating a String for it. The returned sequence may be a
+	 * view over the reader's internal buffer, in which case it is only valid
+	 * until the next record is read and must not be stored; use toString()
+	 * to keep the value.
+	 *
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The current column value.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 */
+	public CharSequence getCharSequence(int columnIndex) throws IOException {
+		return get(columnIndex);
+	}
+
+	/**
+	 * Returns the length of the current column value for a given column
+	 * index.
+	 *
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The length of the current column value, 0 when the column is
+	 *         empty or does not exist.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 */
+	public int getLength(int columnIndex) throws IOException {
+		return getCharSequence(columnIndex).length();
+	}
+
+	/**
+	 * Parses the current column value for a given column index as a decimal
+	 * integer without creating a String for it.
+	 *
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The parsed value.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @exception NumberFormatException
+	 *                Thrown if the value is empty or not an integer.
+	 */
+	public int getInt(int columnIndex) throws IOException {
+		CharSequence value = getCharSequence(columnIndex);
+		long result = parseInt(value);
+
+		if (result == INVALID_INT) {
+			throw new NumberFormatException("For input string: \"" + value
+					+ "\"");
+		}
+
+		return (int) result;
+	}
+
+	/**
+	 * Parses the current column value for a given column index as a decimal
+	 * integer without creating a String for it.
+	 *
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @param defaultValue
+	 *            The value to return when the column is empty or not an
+	 *            integer.
+	 * @return The parsed value, or defaultValue.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 */
+	public int getInt(int columnIndex, int defaultValue) throws IOException {
+		long result = parseInt(getCharSequence(columnIndex));
+
+		return result == INVALID_INT ? defaultValue : (int) result;
+	}
+
+	/**
+	 * Parses the current column value for a given column index as a double.
+	 * Plain decimal values of up to 15 significant digits are parsed in place,
+	 * anything else is handed to {@link Double#parseDouble(String)}.
+	 *
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @return The parsed value.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 * @exception NumberFormatException
+	 *                Thrown if the value is empty or not a number.
+	 */
+	public double getDouble(int columnIndex) throws IOException {
+		CharSequence value = getCharSequence(columnIndex);
+		double result = parseDecimal(value);
+
+		if (Double.isNaN(result)) {
+			return Double.parseDouble(value.toString());
+		}
+
+		return result;
+	}
+
+	/**
+	 * Parses the current column value for a given column index as a double.
+	 *
+	 * @param columnIndex
+	 *            The index of the column.
+	 * @param defaultValue
+	 *            The value to return when the column is empty or not a
+	 *            number.
+	 * @return The parsed value, or defaultValue.
+	 * @exception IOException
+	 *                Thrown if this object has already been closed.
+	 */
+	public double getDouble(int columnIndex, double defaultValue)
+			throws IOException {
+		CharSequence value = getCharSequence(columnIndex);
+
+		if (value.length() == 0) {
+			return defaultValue;
+		}
+
+		double result = parseDecimal(value);
+
+		if (Double.isNaN(result)) {
+			try {
+				return Double.parseDouble(value.toString());
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+
+		return result;
+	}
+
+	private static final long INVALID_INT = Long.MIN_VALUE;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	/**
+	 * @return The value, or INVALID_INT if the sequence is not a decimal
+	 *         integer in the range of int.
+	 */
+	private static long parseInt(CharSequence value) {
+		int length = value.length();
+
+		if (length == 0) {
+			return INVALID_INT;
+		}
+
+		int i = 0;
+		boolean negative = false;
+		char letter = value.charAt(0);
+
+		if (letter == '-' || letter == '+') {
+			negative = letter == '-';
+			i++;
+
+			if (length == 1) {
+				return INVALID_INT;
+			}
+		}
+
+		long result = 0;
+
+		for (; i < length; i++) {
+			letter = value.charAt(i);
+
+			if (letter < '0' || letter > '9') {
+				return INVALID_INT;
+			}
+
+			result = result * 10 + (letter - '0');
+
+			if (result > (long) Integer.MAX_VALUE + 1) {
+				return INVALID_INT;
+			}
+		}
+
+		if (negative) {
+			result = -result;
+		}
+
+		if (result > Integer.MAX_VALUE) {
+			return INVALID_INT;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Parses [sign]digits[.digits][(e|E)[sign]digits] when the result can be
+	 * computed exactly with a single rounding.
+	 *
+	 * @return The value, or NaN if the sequence needs the general parser.
+	 */
+	private static double parseDecimal(CharSequence value) {
+		int length = value.length();
+		int i = 0;
+
+		if (length == 0) {
+			return Double.NaN;
+		}
+
+		boolean negative = false;
+		char letter = value.charAt(0);
+
+		if (letter == '-' || letter == '+') {
+			negative = letter == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+
+		for (; i < length; i++) {
+			letter = value.charAt(i);
+
+			if (letter >= '0' && letter <= '9') {
+				seenDigit = true;
+
+				if (mantissa == 0 && letter == '0') {
+					// leading zeros are not significant
+					if (seenPoint) {
+						scale++;
+					}
+					continue;
+				}
+
+				if (++digits > 15) {
+					return Double.NaN;
+				}
+
+				mantissa = mantissa * 10 + (letter - '0');
+
+				if (seenPoint) {
+					scale++;
+				}
+			} else if (letter == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+		}
+
+		if (!seenDigit) {
+			return Double.NaN;
+		}
+
+		if (i < length) {
+			letter = value.charAt(i);
+
+			if (letter != 'e' && letter != 'E' || ++i == length) {
+				return Double.NaN;
+			}
+
+			boolean negativeExponent = false;
+			letter = value.charAt(i);
+
+			if (letter == '-' || letter == '+') {
+				negativeExponent = letter == '-';
+
+				if (++i == length) {
+					return Double.NaN;
+				}
+			}
+
+			int exponent = 0;
+
+			for (; i < length; i++) {
+				letter = value.charAt(i);
+
+				if (letter < '0' || letter > '9' || exponent > 1000) {
+					return Double.NaN;
+				}
+
+				exponent = exponent * 10 + (letter - '0');
+			}
+
+			scale += negativeExponent ? exponent : -exponent;
+		}
+
+		double result;
+
+		if (mantissa == 0) {
+			result = 0;
+		} else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+			result = mantissa / POWERS_OF_TEN[scale];
+		} else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+			result = mantissa * POWERS_OF_TEN[-scale];
+		} else {
+			return Double.NaN;
+		}
+
+		return negative ? -result : result;
+	}
+
 	/**
 	 * Creates a {@link com.csvreader.CsvReader CsvReader} object using a string
 	 * of data as the source.&nbsp;Uses ISO-8859-1 as the
@@ -0,0 +1,957 @@
+/*
+ * Java CSV is a stream based library for reading and writing
+ * CSV and other delimited data.
+ *
+ * Copyright (C) Bruce Dunwiddie bruce@csvreader.com
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA
+ */
+package com.csvreader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A {@link com.csvreader.CsvReader CsvReader} that memory-maps a file and
+ * tokenizes its raw bytes, decoding only the columns that are requested.
+ * <p>
+ * Only charsets in which the delimiter, text qualifier and record delimiters
+ * are single bytes that never occur inside a multi-byte sequence can be read
+ * this way, see {@link #supports(Charset) supports()}. Text qualifiers are
+ * escaped by doubling them; {@link CsvReader#ESCAPE_MODE_BACKSLASH} is not
+ * supported by this reader.
+ */
+public class MappedCsvReader extends CsvReader {
+	// files larger than this are mapped one window at a time; a single
+	// record must fit inside a window
+	private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final int NEED_MORE_DATA = -1;
+
+	// states used by nextBoundary() to track whether a byte is inside a text
+	// qualified column
+
+	private static final int SPLIT_COLUMN_START = 0;
+
+	private static final int SPLIT_UNQUALIFIED = 1;
+
+	private static final int SPLIT_QUALIFIED = 2;
+
+	private static final int SPLIT_QUALIFIER_IN_QUALIFIED = 3;
+
+	private static final byte CR = '\r';
+
+	private static final byte LF = '\n';
+
+	private static final byte SPACE = ' ';
+
+	private static final byte TAB = '\t';
+
+	private File file;
+
+	private FileInputStream fileStream;
+
+	private FileChannel channel;
+
+	private Charset charset;
+
+	private long dataStart;
+
+	private long dataEnd;
+
+	// the current mapping covers [windowStart, windowStart + window.limit())
+	// of the file, all positions below are relative to the window
+
+	private long windowStart;
+
+	private ByteBuffer window;
+
+	private int position;
+
+	private int recordStart;
+
+	private int recordEnd;
+
+	private int columnsCount = 0;
+
+	private long currentRecord = 0;
+
+	private int[] columnStart = new int[INITIAL_COLUMN_COUNT];
+
+	private int[] columnEnd = new int[INITIAL_COLUMN_COUNT];
+
+	private boolean[] columnQualified = new boolean[INITIAL_COLUMN_COUNT];
+
+	private boolean[] columnEscaped = new boolean[INITIAL_COLUMN_COUNT];
+
+	// decoded column values, filled in lazily by get()
+	private String[] values = new String[INITIAL_COLUMN_COUNT];
+
+	// reusable views handed out by getCharSequence(), one per column
+	private ColumnView[] views = new ColumnView[INITIAL_COLUMN_COUNT];
+
+	private byte[] decodeBuffer = new byte[INITIAL_DECODE_BUFFER_SIZE];
+
+	// whether every byte maps to the char of the same value
+	private boolean latin1;
+
+	private boolean closed = false;
+
+	private static final int INITIAL_COLUMN_COUNT = 10;
+
+	private static final int INITIAL_DECODE_BUFFER_SIZE = 256;
+
+	/**
+	 * Creates a {@link com.csvreader.MappedCsvReader MappedCsvReader} object
+	 * that maps a file as the data source.
+	 *
+	 * @param file
+	 *            The file to use as the data source.
+	 * @param delimiter
+	 *            The character to use as the column delimiter.
+	 * @param charset
+	 *            The {@link java.nio.charset.Charset Charset} to use when
+	 *            decoding column values, which must be one for which
+	 *            {@link #supports(Charset) supports()} returns true.
+	 * @exception IOException
+	 *                Thrown if the file can not be opened or mapped.
+	 */
+	public MappedCsvReader(File file, char delimiter, Charset charset)
+			throws IOException {
+		this(file, delimiter, charset, 0, -1);
+	}
+
+	/**
+	 * Creates a {@link com.csvreader.MappedCsvReader MappedCsvReader} object
+	 * that maps a range of a file as the data source.
+	 *
+	 * @param file
+	 *            The file to use as the data source.
+	 * @param delimiter
+	 *            The character to use as the column delimiter.
+	 * @param charset
+	 *            The {@link java.nio.charset.Charset Charset} to use when
+	 *            decoding column values, which must be one for which
+	 *            {@link #supports(Charset) supports()} returns true.
+	 * @param start
+	 *            The offset of the first byte to read, which should be the
+	 *            start of a record.
+	 * @param end
+	 *            The offset following the last byte to read, or -1 to read
+	 *            to the end of the file.
+	 * @exception IOException
+	 *                Thrown if the file can not be opened or mapped.
+	 */
+	public MappedCsvReader(File file, char delimiter, Charset charset,
+			long start, long end) throws IOException {
+		super(delimiter);
+
+		if (file == null) {
+			throw new IllegalArgumentException(
+					"Parameter file can not be null.");
+		}
+
+		if (charset == null) {
+			throw new IllegalArgumentException(
+					"Parameter charset can not be null.");
+		}
+
+		if (!supports(charset)) {
+			throw new IllegalArgumentException("Charset " + charset.name()
+					+ " can not be tokenized as raw bytes.");
+		}
+
+		if (!file.exists()) {
+			throw new FileNotFoundException("File " + file.getPath()
+					+ " does not exist.");
+		}
+
+		this.file = file;
+		this.charset = charset;
+		this.latin1 = charset.name().equals("ISO-8859-1");
+
+		fileStream = new FileInputStream(file);
+		channel = fileStream.getChannel();
+
+		dataStart = start;
+		dataEnd = end < 0 ? channel.size() : Math.min(end, channel.size());
+
+		if (dataStart > dataEnd) {
+			dataStart = dataEnd;
+		}
+
+		map(dataStart);
+
+		// skip a UTF-8 byte order mark
+		if (start == 0 && window.limit() >= 3
+				&& window.get(0) == (byte) 0xEF
+				&& window.get(1) == (byte) 0xBB
+				&& window.get(2) == (byte) 0xBF) {
+			position = 3;
+		}
+	}
+
+	/**
+	 * Whether files in the given charset can be tokenized as raw bytes.
+	 *
+	 * @param charset
+	 *            The charset of the data.
+	 * @return True for UTF-8, US-ASCII and ISO-8859-1.
+	 */
+	public static boolean supports(Charset charset) {
+		String name = charset.name();
+
+		return name.equals("UTF-8") || name.equals("US-ASCII")
+				|| name.equals("ISO-8859-1");
+	}
+
+	private void map(long start) throws IOException {
+		long size = Math.min(MAP_WINDOW_SIZE, dataEnd - start);
+
+		window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		windowStart = start;
+		position = 0;
+	}
+
+	private boolean isLastWindow() {
+		return windowStart + window.limit() >= dataEnd;
+	}
+
+	public int getColumnCount() {
+		return columnsCount;
+	}
+
+	public long getCurrentRecord() {
+		return currentRecord - 1;
+	}
+
+	public String getRawRecord() {
+		if (columnsCount == 0) {
+			return "";
+		}
+
+		return decode(recordStart, recordEnd, false);
+	}
+
+	public String[] getValues() throws IOException {
+		checkClosed();
+
+		String[] clone = new String[columnsCount];
+
+		for (int i = 0; i < columnsCount; i++) {
+			clone[i] = get(i);
+		}
+
+		return clone;
+	}
+
+	public String get(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex > -1 && columnIndex < columnsCount) {
+			return getValue(columnIndex);
+		} else {
+			return "";
+		}
+	}
+
+	private String getValue(int columnIndex) {
+		String value = values[columnIndex];
+
+		if (value == null) {
+			value = decode(columnStart[columnIndex], columnEnd[columnIndex],
+					columnEscaped[columnIndex]);
+			values[columnIndex] = value;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Returns a view over the mapped bytes of the column when they can be
+	 * read as chars directly, otherwise the decoded value.
+	 */
+	public CharSequence getCharSequence(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex < 0 || columnIndex >= columnsCount) {
+			return "";
+		}
+
+		if (values[columnIndex] != null || columnEscaped[columnIndex]
+				|| !isSingleByte(columnStart[columnIndex],
+						columnEnd[columnIndex])) {
+			return getValue(columnIndex);
+		}
+
+		if (columnIndex >= views.length) {
+			ColumnView[] holder = new ColumnView[columnStart.length];
+			System.arraycopy(views, 0, holder, 0, views.length);
+			views = holder;
+		}
+
+		ColumnView view = views[columnIndex];
+
+		if (view == null) {
+			view = new ColumnView(columnIndex);
+			views[columnIndex] = view;
+		}
+
+		return view;
+	}
+
+	public int getLength(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex < 0 || columnIndex >= columnsCount) {
+			return 0;
+		}
+
+		if (columnEscaped[columnIndex]
+				|| !isSingleByte(columnStart[columnIndex],
+						columnEnd[columnIndex])) {
+			return getValue(columnIndex).length();
+		}
+
+		return columnEnd[columnIndex] - columnStart[columnIndex];
+	}
+
+	private boolean isSingleByte(int start, int end) {
+		if (latin1) {
+			return true;
+		}
+
+		for (int i = start; i < end; i++) {
+			if (window.get(i) < 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public boolean isQualified(int columnIndex) throws IOException {
+		checkClosed();
+
+		if (columnIndex < columnsCount && columnIndex > -1) {
+			return columnQualified[columnIndex];
+		} else {
+			return false;
+		}
+	}
+
+	public boolean readHeaders() throws IOException {
+		boolean result = readRecord();
+
+		String[] headers = new String[columnsCount];
+
+		for (int i = 0; i < columnsCount; i++) {
+			headers[i] = get(i);
+		}
+
+		setHeaders(headers);
+
+		if (result) {
+			currentRecord--;
+		}
+
+		columnsCount = 0;
+
+		return result;
+	}
+
+	public boolean readRecord() throws IOException {
+		checkClosed();
+
+		columnsCount = 0;
+
+		byte recordDelimiter = (byte) getRecordDelimiter();
+		byte comment = (byte) getComment();
+
+		while (true) {
+			if (position >= window.limit()) {
+				if (isLastWindow()) {
+					return false;
+				}
+
+				map(windowStart + position);
+				continue;
+			}
+
+			byte letter = window.get(position);
+
+			if (isRecordDelimiter(letter, recordDelimiter)
+					&& getSkipEmptyRecords()) {
+				position++;
+				continue;
+			}
+
+			if (getUseComments() && letter == comment) {
+				int next = skipToNextLine(position, recordDelimiter);
+
+				if (next == NEED_MORE_DATA) {
+					remapAtRecordStart(position);
+					continue;
+				}
+
+				position = next;
+				continue;
+			}
+
+			int next = tokenizeRecord(position, recordDelimiter);
+
+			if (next == NEED_MORE_DATA) {
+				remapAtRecordStart(position);
+				continue;
+			}
+
+			position = next;
+			currentRecord++;
+
+			return true;
+		}
+	}
+
+	private void remapAtRecordStart(int start) throws IOException {
+		columnsCount = 0;
+
+		if (start == 0) {
+			close();
+
+			throw new IOException("Record " + currentRecord
+					+ " is longer than the mapping window of "
+					+ MAP_WINDOW_SIZE + " bytes.");
+		}
+
+		map(windowStart + start);
+	}
+
+	private boolean isRecordDelimiter(byte letter, byte recordDelimiter) {
+		if (recordDelimiter != 0) {
+			return letter == recordDelimiter;
+		}
+
+		return letter == CR || letter == LF;
+	}
+
+	/**
+	 * Splits the record starting at the given position into columns.
+	 *
+	 * @return The position following the record delimiter, or NEED_MORE_DATA
+	 *         if the window ends before the record does.
+	 */
+	private int tokenizeRecord(int pos, byte recordDelimiter) {
+		int limit = window.limit();
+		boolean lastWindow = isLastWindow();
+
+		byte delimiter = (byte) getDelimiter();
+		byte qualifier = (byte) getTextQualifier();
+		boolean useQualifier = getUseTextQualifier();
+		boolean trim = getTrimWhitespace();
+
+		recordStart = pos;
+
+		while (true) {
+			if (trim) {
+				while (pos < limit) {
+					byte letter = window.get(pos);
+
+					if (letter != SPACE && letter != TAB) {
+						break;
+					}
+
+					pos++;
+				}
+			}
+
+			if (useQualifier && pos < limit && window.get(pos) == qualifier) {
+				int start = ++pos;
+				boolean escaped = false;
+
+				while (true) {
+					if (pos >= limit) {
+						break;
+					}
+
+					if (window.get(pos) == qualifier) {
+						if (pos + 1 >= limit && !lastWindow) {
+							return NEED_MORE_DATA;
+						}
+
+						if (pos + 1 < limit && window.get(pos + 1) == qualifier) {
+							escaped = true;
+							pos += 2;
+							continue;
+						}
+
+						break;
+					}
+
+					pos++;
+				}
+
+				if (pos >= limit && !lastWindow) {
+					return NEED_MORE_DATA;
+				}
+
+				int end = pos;
+
+				// anything between the closing qualifier and the next
+				// delimiter is discarded
+				while (pos < limit) {
+					byte letter = window.get(pos);
+
+					if (letter == delimiter
+							|| isRecordDelimiter(letter, recordDelimiter)) {
+						break;
+					}
+
+					pos++;
+				}
+
+				if (pos >= limit && !lastWindow) {
+					return NEED_MORE_DATA;
+				}
+
+				endColumn(start, end, true, escaped);
+			} else {
+				int start = pos;
+
+				while (pos < limit) {
+					byte letter = window.get(pos);
+
+					if (letter == delimiter
+							|| isRecordDelimiter(letter, recordDelimiter)) {
+						break;
+					}
+
+					pos++;
+				}
+
+				if (pos >= limit && !lastWindow) {
+					return NEED_MORE_DATA;
+				}
+
+				int end = pos;
+
+				if (trim) {
+					while (end > start) {
+						byte letter = window.get(end - 1);
+
+						if (letter != SPACE && letter != TAB) {
+							break;
+						}
+
+						end--;
+					}
+				}
+
+				endColumn(start, end, false, false);
+			}
+
+			if (pos >= limit) {
+				// end of data without a trailing record delimiter
+				recordEnd = pos;
+				return pos;
+			}
+
+			byte letter = window.get(pos);
+
+			if (letter == delimiter) {
+				pos++;
+				continue;
+			}
+
+			recordEnd = pos;
+			pos++;
+
+			if (letter == CR && recordDelimiter == 0) {
+				if (pos >= limit && !lastWindow) {
+					return NEED_MORE_DATA;
+				}
+
+				if (pos < limit && window.get(pos) == LF) {
+					pos++;
+				}
+			}
+
+			return pos;
+		}
+	}
+
+	/**
+	 * Gets the offset in the file of the data following the current record.
+	 *
+	 * @return The offset of the next record.
+	 */
+	public long getOffset() {
+		return windowStart + position;
+	}
+
+	/**
+	 * Gets the offset in the file following the last byte this reader reads.
+	 *
+	 * @return The end of the data.
+	 */
+	public long getEndOffset() {
+		return dataEnd;
+	}
+
+	/**
+	 * Splits the data following the current record into ranges of roughly
+	 * equal size that each begin at the start of a record, so that they can
+	 * be read independently with {@link #slice(long, long) slice()}. Record
+	 * delimiters inside text qualified columns do not end a range.
+	 *
+	 * @param count
+	 *            The number of ranges wanted.
+	 * @return The boundaries of at most count ranges, range i spans from
+	 *         boundaries[i] up to boundaries[i + 1].
+	 * @exception IOException
+	 *                Thrown if the file can not be mapped.
+	 */
+	public long[] split(int count) throws IOException {
+		checkClosed();
+
+		if (count < 1) {
+			throw new IllegalArgumentException(
+					"Parameter count must be at least 1.");
+		}
+
+		long from = getOffset();
+		long rangeSize = Math.max(1, (dataEnd - from) / count);
+
+		long[] boundaries = new long[count + 1];
+		int boundariesCount = 0;
+
+		boundaries[boundariesCount++] = from;
+
+		while (from < dataEnd && boundariesCount < count) {
+			from = nextBoundary(from, from + rangeSize);
+
+			if (from < dataEnd) {
+				boundaries[boundariesCount++] = from;
+			}
+		}
+
+		boundaries[boundariesCount++] = dataEnd;
+
+		return Arrays.copyOf(boundaries, boundariesCount);
+	}
+
+	/**
+	 * Finds the start of the first record that begins at or after target.
+	 * Calling this repeatedly, each time from the boundary it returned,
+	 * divides the data into ranges that can be read independently with
+	 * {@link #slice(long, long) slice()}, without having to scan all of the
+	 * data first as {@link #split(int) split()} does.
+	 *
+	 * @param from
+	 *            The offset of the start of a record, such as
+	 *            {@link #getOffset() getOffset()} or a boundary returned
+	 *            earlier. The scan starts here, so that record delimiters
+	 *            inside text qualified columns are recognized.
+	 * @param target
+	 *            The offset at or after which the boundary should be.
+	 * @return The offset of the boundary, or {@link #getEndOffset()
+	 *         getEndOffset()} if no record starts between target and the
+	 *         end of the data.
+	 * @exception IOException
+	 *                Thrown if the file can not be mapped.
+	 */
+	public long nextBoundary(long from, long target) throws IOException {
+		checkClosed();
+
+		byte delimiter = (byte) getDelimiter();
+		byte qualifier = (byte) getTextQualifier();
+		byte recordDelimiter = (byte) getRecordDelimiter();
+		boolean useQualifier = getUseTextQualifier();
+		boolean trim = getTrimWhitespace();
+
+		int state = SPLIT_COLUMN_START;
+		long base = from;
+
+		while (base < dataEnd) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					base, Math.min(MAP_WINDOW_SIZE, dataEnd - base));
+			int limit = buffer.limit();
+
+			for (int i = 0; i < limit; i++) {
+				byte letter = buffer.get(i);
+
+				if (state == SPLIT_QUALIFIED) {
+					if (letter == qualifier) {
+						state = SPLIT_QUALIFIER_IN_QUALIFIED;
+					}
+					continue;
+				}
+
+				if (state == SPLIT_QUALIFIER_IN_QUALIFIED) {
+					if (letter == qualifier) {
+						// doubled qualifier, still inside the column
+						state = SPLIT_QUALIFIED;
+						continue;
+					}
+
+					state = SPLIT_UNQUALIFIED;
+				}
+
+				if (letter == delimiter) {
+					state = SPLIT_COLUMN_START;
+				} else if (isRecordDelimiter(letter, recordDelimiter)) {
+					state = SPLIT_COLUMN_START;
+
+					long next = base + i + 1;
+
+					if (next >= target) {
+						// keep CR LF pairs in the same range
+						if (letter == CR && recordDelimiter == 0
+								&& i + 1 < limit && buffer.get(i + 1) == LF) {
+							next++;
+						}
+
+						return Math.min(next, dataEnd);
+					}
+				} else if (state == SPLIT_COLUMN_START) {
+					if (useQualifier && letter == qualifier) {
+						state = SPLIT_QUALIFIED;
+					} else if (!trim || (letter != SPACE && letter != TAB)) {
+						state = SPLIT_UNQUALIFIED;
+					}
+				}
+			}
+
+			base += limit;
+		}
+
+		return dataEnd;
+	}
+
+	/**
+	 * Creates a reader over a range of the same file, sharing this reader's
+	 * settings and headers.
+	 *
+	 * @param start
+	 *            The offset of the first byte of the range, as returned by
+	 *            {@link #split(int) split()}.
+	 * @param end
+	 *            The offset following the last byte of the range.
+	 * @return A new reader that must be closed by the caller.
+	 * @exception IOException
+	 *                Thrown if the file can not be opened or mapped.
+	 */
+	public MappedCsvReader slice(long start, long end) throws IOException {
+		checkClosed();
+
+		MappedCsvReader reader = new MappedCsvReader(file, getDelimiter(),
+				charset, start, end);
+
+		reader.setTextQualifier(getTextQualifier());
+		reader.setUseTextQualifier(getUseTextQualifier());
+		reader.setTrimWhitespace(getTrimWhitespace());
+		reader.setSkipEmptyRecords(getSkipEmptyRecords());
+		reader.setComment(getComment());
+		reader.setUseComments(getUseComments());
+
+		if (getRecordDelimiter() != 0) {
+			reader.setRecordDelimiter(getRecordDelimiter());
+		}
+
+		reader.setHeaders(getHeaders());
+
+		return reader;
+	}
+
+	private int skipToNextLine(int pos, byte recordDelimiter) {
+		int limit = window.limit();
+
+		while (pos < limit) {
+			byte letter = window.get(pos++);
+
+			if (isRecordDelimiter(letter, recordDelimiter)) {
+				return pos;
+			}
+		}
+
+		return isLastWindow() ? pos : NEED_MORE_DATA;
+	}
+
+	private void endColumn(int start, int end, boolean qualified,
+			boolean escaped) {
+		if (columnsCount == columnStart.length) {
+			int newLength = columnStart.length * 2;
+
+			int[] startHolder = new int[newLength];
+			int[] endHolder = new int[newLength];
+			boolean[] qualifiedHolder = new boolean[newLength];
+			boolean[] escapedHolder = new boolean[newLength];
+			String[] valuesHolder = new String[newLength];
+
+			System.arraycopy(columnStart, 0, startHolder, 0, columnsCount);
+			System.arraycopy(columnEnd, 0, endHolder, 0, columnsCount);
+			System.arraycopy(columnQualified, 0, qualifiedHolder, 0,
+					columnsCount);
+			System.arraycopy(columnEscaped, 0, escapedHolder, 0, columnsCount);
+
+			columnStart = startHolder;
+			columnEnd = endHolder;
+			columnQualified = qualifiedHolder;
+			columnEscaped = escapedHolder;
+			values = valuesHolder;
+		}
+
+		columnStart[columnsCount] = start;
+		columnEnd[columnsCount] = end;
+		columnQualified[columnsCount] = qualified;
+		columnEscaped[columnsCount] = escaped;
+		values[columnsCount] = null;
+
+		columnsCount++;
+	}
+
+	private String decode(int start, int end, boolean escaped) {
+		int length = end - start;
+
+		if (length <= 0) {
+			return "";
+		}
+
+		if (decodeBuffer.length < length) {
+			decodeBuffer = new byte[Math.max(length, decodeBuffer.length * 2)];
+		}
+
+		window.position(start);
+		window.get(decodeBuffer, 0, length);
+
+		if (escaped) {
+			// collapse doubled text qualifiers
+			byte qualifier = (byte) getTextQualifier();
+			int j = 0;
+
+			for (int i = 0; i < length; i++) {
+				decodeBuffer[j++] = decodeBuffer[i];
+
+				if (decodeBuffer[i] == qualifier && i + 1 < length
+						&& decodeBuffer[i + 1] == qualifier) {
+					i++;
+				}
+			}
+
+			length = j;
+		}
+
+		return new String(decodeBuffer, 0, length, charset);
+	}
+
+	private class ColumnView implements CharSequence {
+		private final int index;
+
+		public ColumnView(int index) {
+			this.index = index;
+		}
+
+		public int length() {
+			return columnEnd[index] - columnStart[index];
+		}
+
+		public char charAt(int i) {
+			if (i < 0 || i >= length()) {
+				throw new IndexOutOfBoundsException(Integer.toString(i));
+			}
+
+			return (char) (window.get(columnStart[index] + i) & 0xFF);
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		public String toString() {
+			return getValue(index);
+		}
+	}
+
+	public boolean skipRecord() throws IOException {
+		checkClosed();
+
+		boolean recordRead = readRecord();
+
+		if (recordRead) {
+			currentRecord--;
+		}
+
+		return recordRead;
+	}
+
+	public boolean skipLine() throws IOException {
+		checkClosed();
+
+		columnsCount = 0;
+
+		byte recordDelimiter = (byte) getRecordDelimiter();
+
+		while (true) {
+			if (position >= window.limit()) {
+				if (isLastWindow()) {
+					return false;
+				}
+
+				map(windowStart + position);
+			}
+
+			int next = skipToNextLine(position, recordDelimiter);
+
+			if (next == NEED_MORE_DATA) {
+				remapAtRecordStart(position);
+				continue;
+			}
+
+			position = next;
+
+			return true;
+		}
+	}
+
+	public void close() {
+		if (!closed) {
+			closed = true;
+
+			window = null;
+			values = null;
+
+			try {
+				channel.close();
+				fileStream.close();
+			} catch (IOException e) {
+				// just eat the exception
+			}
+		}
+
+		super.close();
+	}
+
+	private void checkClosed() throws IOException {
+		if (closed) {
+			throw new IOException(
+					"This instance of the CsvReader class has already been closed.");
+		}
+	}
+}
\ No newline at end of file
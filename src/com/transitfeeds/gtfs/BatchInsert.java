@@ -0,0 +1,263 @@
+package com.transitfeeds.gtfs;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Inserts rows into a table several at a time with multi-row INSERT
+ * statements. Values are set like the parameters of a PreparedStatement,
+ * with indexes that start at 1 for each row; addBatch completes a row and
+ * executeBatch inserts all of the rows added since the last call.
+ *
+ * The number of rows in a statement depends on the number of columns and on
+ * how many bind variables the database accepts. Databases other than SQLite
+ * and PostgreSQL get one row per statement.
+ */
+public class BatchInsert {
+    private static final int SQLITE_MAX_VARIABLES = 999;
+    private static final int POSTGRESQL_MAX_VARIABLES = 32767;
+
+    // also SQLite's limit on the number of terms in a compound SELECT
+    private static final int MAX_ROWS = 500;
+
+    private static final byte TYPE_NULL   = 0;
+    private static final byte TYPE_INT    = 1;
+    private static final byte TYPE_DOUBLE = 2;
+    private static final byte TYPE_STRING = 3;
+
+    private Connection mConnection;
+    private String mTable;
+    private String[] mFields;
+
+    private boolean mUnionSyntax = false;
+    private int mRowsPerStatement = 1;
+
+    // holds mRowsPerStatement rows and is added to its batch once they are set
+    private PreparedStatement mStatement;
+    private boolean mBatched = false;
+
+    // the values of the rows not yet bound to mStatement
+    private byte[] mTypes;
+    private int[] mInts;
+    private double[] mDoubles;
+    private String[] mStrings;
+
+    private int mRows = 0;
+    private int mOffset = 0;
+
+    public BatchInsert(Connection connection, String table, String[] fields) throws SQLException {
+        mConnection = connection;
+        mTable = table;
+        mFields = fields;
+
+        DatabaseMetaData meta = connection.getMetaData();
+        String product = meta.getDatabaseProductName();
+
+        if ("SQLite".equals(product)) {
+            mRowsPerStatement = SQLITE_MAX_VARIABLES / fields.length;
+
+            // multi-row VALUES needs SQLite 3.7.11
+            mUnionSyntax = compareVersion(meta.getDatabaseProductVersion(), 3, 7, 11) < 0;
+        }
+        else if ("PostgreSQL".equals(product)) {
+            mRowsPerStatement = POSTGRESQL_MAX_VARIABLES / fields.length;
+        }
+
+        mRowsPerStatement = Math.max(1, Math.min(mRowsPerStatement, MAX_ROWS));
+
+        int size = mRowsPerStatement * fields.length;
+
+        mTypes = new byte[size];
+        mInts = new int[size];
+        mDoubles = new double[size];
+        mStrings = new String[size];
+
+        mStatement = prepare(mRowsPerStatement);
+    }
+
+    public int getRowsPerStatement() {
+        return mRowsPerStatement;
+    }
+
+    public void setInt(int parameterIndex, int x) throws SQLException {
+        int slot = getSlot(parameterIndex);
+
+        mTypes[slot] = TYPE_INT;
+        mInts[slot] = x;
+    }
+
+    public void setDouble(int parameterIndex, double x) throws SQLException {
+        int slot = getSlot(parameterIndex);
+
+        mTypes[slot] = TYPE_DOUBLE;
+        mDoubles[slot] = x;
+    }
+
+    public void setString(int parameterIndex, String x) throws SQLException {
+        int slot = getSlot(parameterIndex);
+
+        mTypes[slot] = TYPE_STRING;
+        mStrings[slot] = x;
+    }
+
+    public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        int slot = getSlot(parameterIndex);
+
+        mTypes[slot] = TYPE_NULL;
+        mInts[slot] = sqlType;
+    }
+
+    private int getSlot(int parameterIndex) throws SQLException {
+        // an index past the last field would silently set the next row
+        if (parameterIndex < 1 || parameterIndex > mFields.length) {
+            throw new SQLException(String.format("Parameter index %d is out of range for the %d fields of %s", parameterIndex, mFields.length, mTable));
+        }
+
+        return mOffset + parameterIndex - 1;
+    }
+
+    /**
+     * Completes the current row. Once there are enough rows for a statement
+     * they are bound to it and the statement is added to its batch.
+     */
+    public void addBatch() throws SQLException {
+        mRows++;
+
+        if (mRows == mRowsPerStatement) {
+            bind(mStatement, mRows);
+            mStatement.addBatch();
+            mBatched = true;
+
+            carryOver(0);
+        }
+        else {
+            carryOver(mOffset + mFields.length);
+        }
+    }
+
+    /**
+     * Inserts all of the completed rows.
+     */
+    public void executeBatch() throws SQLException {
+        if (mBatched) {
+            mStatement.executeBatch();
+            mBatched = false;
+        }
+
+        if (mRows > 0) {
+            PreparedStatement rest = prepare(mRows);
+
+            bind(rest, mRows);
+            rest.executeUpdate();
+            rest.close();
+
+            carryOver(0);
+        }
+    }
+
+    /**
+     * Starts the next row at offset with the values of the current row, as
+     * the parameters of a PreparedStatement are kept from one row to the
+     * next.
+     */
+    private void carryOver(int offset) {
+        if (offset != mOffset) {
+            System.arraycopy(mTypes, mOffset, mTypes, offset, mFields.length);
+            System.arraycopy(mInts, mOffset, mInts, offset, mFields.length);
+            System.arraycopy(mDoubles, mOffset, mDoubles, offset, mFields.length);
+            System.arraycopy(mStrings, mOffset, mStrings, offset, mFields.length);
+        }
+
+        if (offset == 0) {
+            mRows = 0;
+        }
+        mOffset = offset;
+    }
+
+    public void close() throws SQLException {
+        mStatement.close();
+    }
+
+    private PreparedStatement prepare(int rows) throws SQLException {
+        StringBuilder query = new StringBuilder();
+
+        query.append("INSERT INTO ").append(mTable).append(" (");
+
+        for (int i = 0; i < mFields.length; i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append(mFields[i]);
+        }
+
+        query.append(mUnionSyntax ? ") " : ") VALUES ");
+
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                query.append(mUnionSyntax ? " UNION ALL " : ", ");
+            }
+
+            query.append(mUnionSyntax ? "SELECT " : "(");
+
+            for (int i = 0; i < mFields.length; i++) {
+                if (i > 0) {
+                    query.append(", ");
+                }
+                query.append('?');
+            }
+
+            if (!mUnionSyntax) {
+                query.append(')');
+            }
+        }
+
+        return mConnection.prepareStatement(query.toString());
+    }
+
+    private void bind(PreparedStatement statement, int rows) throws SQLException {
+        int count = rows * mFields.length;
+
+        for (int slot = 0; slot < count; slot++) {
+            switch (mTypes[slot]) {
+            case TYPE_INT:
+                statement.setInt(slot + 1, mInts[slot]);
+                break;
+            case TYPE_DOUBLE:
+                statement.setDouble(slot + 1, mDoubles[slot]);
+                break;
+            case TYPE_STRING:
+                statement.setString(slot + 1, mStrings[slot]);
+                break;
+            default:
+                statement.setNull(slot + 1, mInts[slot]);
+            }
+        }
+    }
+
+    /**
+     * Compares a version such as "3.7.2" with major.minor.patch.
+     */
+    private static int compareVersion(String version, int major, int minor, int patch) {
+        int[] wanted = { major, minor, patch };
+        String[] parts = version.split("\\.");
+
+        for (int i = 0; i < wanted.length; i++) {
+            int part = 0;
+
+            if (i < parts.length) {
+                try {
+                    part = Integer.parseInt(parts[i].replaceAll("[^0-9].*", ""));
+                } catch (NumberFormatException nfe) {
+                }
+            }
+
+            if (part != wanted[i]) {
+                return part < wanted[i] ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,142 @@
+package com.transitfeeds.gtfs;
+
+/**
+ * Chooses how many rows to send per batch, and per transaction, from the
+ * measured throughput. After each window of batches the batch size is
+ * doubled or halved: in the same direction as long as rows per second
+ * improve, and in the other direction once they get worse. A batch that
+ * takes longer than MAX_BATCH_LATENCY makes the batches smaller straight
+ * away. The commit interval is set so that a transaction holds about
+ * COMMIT_SECONDS of work. Both sizes stay within the bounds given.
+ *
+ * Batches may be sized on one thread and executed on another, so the
+ * methods are synchronized.
+ */
+public class BatchSizer {
+    public static final int DEFAULT_MIN_BATCH = 100;
+    public static final int DEFAULT_MAX_BATCH = 100000;
+    public static final int DEFAULT_MIN_COMMIT = 10000;
+    public static final int DEFAULT_MAX_COMMIT = Integer.MAX_VALUE;
+
+    private static final long MAX_BATCH_LATENCY = 2000000000L;
+    private static final double COMMIT_SECONDS = 10;
+
+    // a size is judged on at least this many batches and nanoseconds
+    private static final int WINDOW_BATCHES = 3;
+    private static final long WINDOW_NANOS = 200000000L;
+
+    // changes in throughput smaller than this are noise
+    private static final double TOLERANCE = 0.05;
+
+    private String mName;
+    private int mMinBatch;
+    private int mMaxBatch;
+    private int mMinCommit;
+    private int mMaxCommit;
+
+    private int mBatchSize;
+    private int mCommitInterval;
+    private int mDirection = 1;
+    private double mLastThroughput = 0;
+
+    private long mWindowRows = 0;
+    private long mWindowNanos = 0;
+    private int mWindowBatches = 0;
+
+    private long mUncommittedRows = 0;
+
+    private int mSmallestBatch;
+    private int mLargestBatch;
+    private int mCommits = 0;
+
+    public BatchSizer(String name, int initialBatch, int minBatch, int maxBatch, int minCommit, int maxCommit) {
+        if (minBatch < 1 || maxBatch < minBatch || minCommit < 1 || maxCommit < minCommit) {
+            throw new IllegalArgumentException("Invalid batch bounds " + minBatch + "-" + maxBatch + " or commit bounds " + minCommit + "-" + maxCommit);
+        }
+
+        mName = name;
+        mMinBatch = minBatch;
+        mMaxBatch = maxBatch;
+        mMinCommit = minCommit;
+        mMaxCommit = maxCommit;
+
+        mBatchSize = clamp(initialBatch, minBatch, maxBatch);
+        mCommitInterval = maxCommit;
+
+        mSmallestBatch = mBatchSize;
+        mLargestBatch = mBatchSize;
+    }
+
+    public BatchSizer(String name, int initialBatch) {
+        this(name, initialBatch, DEFAULT_MIN_BATCH, DEFAULT_MAX_BATCH, DEFAULT_MIN_COMMIT, DEFAULT_MAX_COMMIT);
+    }
+
+    public synchronized int getBatchSize() {
+        return mBatchSize;
+    }
+
+    public synchronized int getCommitInterval() {
+        return mCommitInterval;
+    }
+
+    /**
+     * Records a batch of rows that took nanos to execute, and adjusts the
+     * sizes.
+     *
+     * @return true if the rows since the last commit should be committed now.
+     */
+    public synchronized boolean executed(int rows, long nanos) {
+        mWindowRows += rows;
+        mWindowNanos += nanos;
+        mWindowBatches++;
+
+        if (nanos > MAX_BATCH_LATENCY && mBatchSize > mMinBatch) {
+            mDirection = -1;
+            mLastThroughput = 0;
+            resize(mBatchSize / 2);
+        }
+        else if (mWindowBatches >= WINDOW_BATCHES && mWindowNanos >= WINDOW_NANOS) {
+            double throughput = mWindowRows * 1e9 / mWindowNanos;
+
+            if (throughput < mLastThroughput * (1 - TOLERANCE)) {
+                mDirection = -mDirection;
+            }
+
+            mLastThroughput = throughput;
+            mCommitInterval = clamp((long) (throughput * COMMIT_SECONDS), mMinCommit, mMaxCommit);
+
+            resize(mDirection > 0 ? mBatchSize * 2 : mBatchSize / 2);
+        }
+
+        mUncommittedRows += rows;
+
+        if (mUncommittedRows >= mCommitInterval) {
+            mUncommittedRows = 0;
+            mCommits++;
+            return true;
+        }
+
+        return false;
+    }
+
+    private void resize(long size) {
+        mBatchSize = clamp(size, mMinBatch, mMaxBatch);
+
+        mSmallestBatch = Math.min(mSmallestBatch, mBatchSize);
+        mLargestBatch = Math.max(mLargestBatch, mBatchSize);
+
+        mWindowRows = 0;
+        mWindowNanos = 0;
+        mWindowBatches = 0;
+    }
+
+    private static int clamp(long value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        String commits = mCommits > 0 ? String.format("%d commits of up to %d rows", mCommits, mCommitInterval) : "no intermediate commits";
+        return String.format("%s: batches of %d to %d rows, ended at %d; %s", mName, mSmallestBatch, mLargestBatch, mBatchSize, commits);
+    }
+}
@@ -0,0 +1,199 @@
+package com.transitfeeds.gtfs;
+
+import java.sql.SQLException;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Encodes a row in PostgreSQL's binary COPY format. Values are converted to
+ * the declared type of their column, so an int added to a REAL column is sent
+ * as a float4. As with the text format, which loads with NULL AS '', empty
+ * strings are sent as NULL.
+ */
+public class BinaryCopierRow extends DataCopierRow {
+    public static final int TYPE_TEXT    = 0;
+    public static final int TYPE_INTEGER = 1;
+    public static final int TYPE_REAL    = 2;
+
+    private static final byte[] SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0 };
+
+    private int[] mTypes;
+
+    public BinaryCopierRow(CopyIn copier, int[] types) {
+        super(copier);
+        mTypes = types;
+
+        // reserve the field count of the first row
+        mLength = 2;
+    }
+
+    /**
+     * Writes the file header, which must precede the first row of a COPY.
+     */
+    public static void writeHeader(CopyIn copier) throws SQLException {
+        byte[] header = new byte[SIGNATURE.length + 8];
+        System.arraycopy(SIGNATURE, 0, header, 0, SIGNATURE.length);
+
+        // flags and header extension length are both 0
+        copier.writeToCopy(header, 0, header.length);
+    }
+
+    /**
+     * Writes the file trailer, which must follow the last row of a COPY.
+     */
+    public static void writeTrailer(CopyIn copier) throws SQLException {
+        byte[] trailer = { (byte) 0xFF, (byte) 0xFF };
+        copier.writeToCopy(trailer, 0, trailer.length);
+    }
+
+    private int nextType() {
+        int field = mFieldCount++;
+        return field < mTypes.length ? mTypes[field] : TYPE_TEXT;
+    }
+
+    private boolean nextTypeIsNumeric() {
+        return mFieldCount < mTypes.length && mTypes[mFieldCount] != TYPE_TEXT;
+    }
+
+    @Override
+    public void add(String value) {
+        if (value == null || value.length() == 0) {
+            addNull();
+            return;
+        }
+
+        switch (nextType()) {
+        case TYPE_INTEGER:
+            writeInteger(Integer.parseInt(value.trim()));
+            break;
+        case TYPE_REAL:
+            writeReal(Float.parseFloat(value.trim()));
+            break;
+        default:
+            writeText(value);
+        }
+    }
+
+    @Override
+    public void add(CharSequence value) {
+        if (value == null || value instanceof String || nextTypeIsNumeric()) {
+            add(value == null ? null : value.toString());
+            return;
+        }
+
+        if (value.length() == 0) {
+            addNull();
+            return;
+        }
+
+        mFieldCount++;
+        writeText(value);
+    }
+
+    @Override
+    public void add(int value) {
+        switch (nextType()) {
+        case TYPE_INTEGER:
+            writeInteger(value);
+            break;
+        case TYPE_REAL:
+            writeReal(value);
+            break;
+        default:
+            writeText(Integer.toString(value));
+        }
+    }
+
+    @Override
+    public void add(long value) {
+        switch (nextType()) {
+        case TYPE_INTEGER:
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Value out of range for INTEGER: " + value);
+            }
+            writeInteger((int) value);
+            break;
+        case TYPE_REAL:
+            writeReal(value);
+            break;
+        default:
+            writeText(Long.toString(value));
+        }
+    }
+
+    @Override
+    public void add(float value) {
+        add((double) value);
+    }
+
+    @Override
+    public void add(double value) {
+        switch (nextType()) {
+        case TYPE_INTEGER:
+            if (value != (int) value) {
+                throw new NumberFormatException("Value is not an INTEGER: " + value);
+            }
+            writeInteger((int) value);
+            break;
+        case TYPE_REAL:
+            writeReal((float) value);
+            break;
+        default:
+            writeText(Double.toString(value));
+        }
+    }
+
+    @Override
+    public void addNull() {
+        mFieldCount++;
+        writeInt(-1);
+    }
+
+    @Override
+    public void endRow() throws SQLException {
+        mBuffer[mRowStart] = (byte) (mFieldCount >>> 8);
+        mBuffer[mRowStart + 1] = (byte) mFieldCount;
+
+        mFieldCount = 0;
+        mRowStart = mLength;
+
+        if (mRowStart >= FLUSH_SIZE) {
+            flush();
+        }
+
+        // reserve the field count of the next row
+        ensureCapacity(2);
+        mLength += 2;
+    }
+
+    private void writeInteger(int value) {
+        writeInt(4);
+        writeInt(value);
+    }
+
+    private void writeReal(float value) {
+        writeInt(4);
+        writeInt(Float.floatToIntBits(value));
+    }
+
+    private void writeText(CharSequence value) {
+        writeInt(0);
+
+        int start = mLength;
+        writeChars(value, false);
+
+        int length = mLength - start;
+        mBuffer[start - 4] = (byte) (length >>> 24);
+        mBuffer[start - 3] = (byte) (length >>> 16);
+        mBuffer[start - 2] = (byte) (length >>> 8);
+        mBuffer[start - 1] = (byte) length;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        mBuffer[mLength++] = (byte) (value >>> 24);
+        mBuffer[mLength++] = (byte) (value >>> 16);
+        mBuffer[mLength++] = (byte) (value >>> 8);
+        mBuffer[mLength++] = (byte) value;
+    }
+}
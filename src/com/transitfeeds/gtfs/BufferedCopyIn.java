@@ -0,0 +1,142 @@
+package com.transitfeeds.gtfs;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+
+import org.postgresql.copy.CopyIn;
+
+/**
+ * A CopyIn that collects the rows written to it into blocks and hands each
+ * full block to a queue, so that rows can be encoded on one thread and
+ * written to the real COPY stream on another.
+ */
+public class BufferedCopyIn implements CopyIn {
+
+    /**
+     * Marks the end of the blocks of one BufferedCopyIn in the queue.
+     */
+    public static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private BlockingQueue<ByteBuffer> mQueue;
+    private int mBlockSize;
+    private int mFormat;
+    private int mFieldCount;
+
+    private byte[] mBlock;
+    private int mLength;
+
+    private volatile boolean mCancelled = false;
+    private boolean mEnded = false;
+
+    // time spent blocked on a full queue
+    private long mWaitTime = 0;
+
+    public BufferedCopyIn(BlockingQueue<ByteBuffer> queue, int blockSize, int format, int fieldCount) {
+        mQueue = queue;
+        mBlockSize = blockSize;
+        mFormat = format;
+        mFieldCount = fieldCount;
+        mBlock = new byte[blockSize];
+    }
+
+    @Override
+    public void writeToCopy(byte[] buf, int off, int siz) throws SQLException {
+        if (mCancelled || mEnded) {
+            throw new SQLException("Copy buffer is no longer active");
+        }
+
+        if (mLength + siz > mBlock.length) {
+            flushCopy();
+        }
+
+        if (siz > mBlock.length) {
+            byte[] block = new byte[siz];
+            System.arraycopy(buf, off, block, 0, siz);
+            put(ByteBuffer.wrap(block));
+            return;
+        }
+
+        System.arraycopy(buf, off, mBlock, mLength, siz);
+        mLength += siz;
+    }
+
+    @Override
+    public void flushCopy() throws SQLException {
+        if (mLength == 0) {
+            return;
+        }
+
+        put(ByteBuffer.wrap(mBlock, 0, mLength));
+
+        mBlock = new byte[mBlockSize];
+        mLength = 0;
+    }
+
+    /**
+     * Flushes the remaining rows and queues END. The number of rows is not
+     * known here, so -1 is returned.
+     */
+    @Override
+    public long endCopy() throws SQLException {
+        if (!mEnded) {
+            flushCopy();
+            mEnded = true;
+            put(END);
+        }
+        return -1;
+    }
+
+    private void put(ByteBuffer block) throws SQLException {
+        long start = System.nanoTime();
+
+        try {
+            mQueue.put(block);
+            mWaitTime += System.nanoTime() - start;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while queueing copy data");
+        }
+    }
+
+    /**
+     * Returns the number of nanoseconds spent waiting for room in the queue.
+     */
+    public long getWaitTime() {
+        return mWaitTime;
+    }
+
+    @Override
+    public int getFieldCount() {
+        return mFieldCount;
+    }
+
+    @Override
+    public int getFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public int getFieldFormat(int field) {
+        return mFormat;
+    }
+
+    @Override
+    public boolean isActive() {
+        return !mEnded && !mCancelled;
+    }
+
+    /**
+     * Makes further writes fail. Blocks that were already queued are left
+     * for the consumer to discard.
+     */
+    @Override
+    public void cancelCopy() throws SQLException {
+        mCancelled = true;
+    }
+
+    @Override
+    public long getHandledRowCount() {
+        return -1;
+    }
+}
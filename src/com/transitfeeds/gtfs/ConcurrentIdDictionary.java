@@ -0,0 +1,171 @@
+package com.transitfeeds.gtfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An IdDictionary that can be shared by threads. The keys are spread over
+ * STRIPES dictionaries by the high bits of their hash, each with its own
+ * lock, and ids are taken from one counter when a key is added. Ids are
+ * dense and start at 1 as in IdDictionary, but when new keys are added by
+ * several threads at once the order they are numbered in is not defined.
+ *
+ * It may be started from a MappedIdDictionary written by an earlier run, in
+ * which case the keys in it keep their ids and new keys are numbered after
+ * them.
+ */
+public class ConcurrentIdDictionary {
+    // a stripe is chosen by the high bits of the hash, since the slot within
+    // it comes from the low bits
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private MappedIdDictionary mBase;
+    private Stripe[] mStripes = new Stripe[STRIPES];
+    private AtomicInteger mLastId = new AtomicInteger();
+
+    public ConcurrentIdDictionary() {
+        this(STRIPES * 64);
+    }
+
+    public ConcurrentIdDictionary(int expectedKeys) {
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new Stripe(Math.max(expectedKeys / STRIPES, 1));
+        }
+    }
+
+    public ConcurrentIdDictionary(MappedIdDictionary base) {
+        this();
+        mBase = base;
+        mLastId.set(base.size());
+    }
+
+    public int size() {
+        return mLastId.get();
+    }
+
+    /**
+     * Returns the id of key, or 0 if it has not been added.
+     */
+    public int get(CharSequence key) {
+        int hash = IdDictionary.hash(key);
+
+        if (mBase != null) {
+            int id = mBase.get(key, hash);
+
+            if (id != 0) {
+                return id;
+            }
+        }
+
+        Stripe stripe = mStripes[hash >>> (32 - STRIPE_BITS)];
+
+        synchronized (stripe) {
+            return stripe.mIds[stripe.mKeys.get(key, hash)];
+        }
+    }
+
+    /**
+     * Returns the id of key, adding it with the next id if it is new.
+     */
+    public int getOrAdd(CharSequence key) {
+        int hash = IdDictionary.hash(key);
+
+        if (mBase != null) {
+            int id = mBase.get(key, hash);
+
+            if (id != 0) {
+                return id;
+            }
+        }
+
+        Stripe stripe = mStripes[hash >>> (32 - STRIPE_BITS)];
+
+        synchronized (stripe) {
+            int size = stripe.mKeys.size();
+            int local = stripe.mKeys.getOrAdd(key, hash);
+
+            if (local > size) {
+                if (local == stripe.mIds.length) {
+                    int[] ids = new int[local * 2];
+                    System.arraycopy(stripe.mIds, 0, ids, 0, local);
+                    stripe.mIds = ids;
+                }
+
+                stripe.mIds[local] = mLastId.incrementAndGet();
+            }
+
+            return stripe.mIds[local];
+        }
+    }
+
+    /**
+     * Writes all of the keys and their ids to file, to be opened as a
+     * MappedIdDictionary. The file is replaced only once it has been written
+     * completely. No keys should be added while it is written.
+     */
+    public void write(File file) throws IOException {
+        int size = mLastId.get();
+        String[] keys = new String[size + 1];
+
+        for (Stripe stripe : mStripes) {
+            synchronized (stripe) {
+                for (int local = 1; local <= stripe.mKeys.size(); local++) {
+                    keys[stripe.mIds[local]] = stripe.mKeys.getKey(local);
+                }
+            }
+        }
+
+        // adding the keys in id order gives each the same id again
+        IdDictionary all = new IdDictionary(size);
+
+        for (int id = 1; id <= size; id++) {
+            String key = mBase != null && id <= mBase.size() ? mBase.getKey(id) : keys[id];
+
+            if (all.getOrAdd(key) != id) {
+                throw new IllegalStateException("Key " + key + " does not have id " + id);
+            }
+        }
+
+        File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        FileOutputStream fos = new FileOutputStream(temp);
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            all.write(out);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException ioe) {
+            fos.close();
+            temp.delete();
+            throw ioe;
+        }
+
+        fos.close();
+
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            temp.delete();
+            throw ioe;
+        }
+    }
+
+    private static class Stripe {
+        public IdDictionary mKeys;
+
+        // the id of each key by its id in mKeys, 0 for none
+        public int[] mIds;
+
+        public Stripe(int expectedKeys) {
+            mKeys = new IdDictionary(expectedKeys);
+            mIds = new int[expectedKeys + 1];
+        }
+    }
+}
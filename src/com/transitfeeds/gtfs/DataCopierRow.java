@@ -1,68 +1,261 @@
 package com.transitfeeds.gtfs;
 
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.postgresql.copy.CopyIn;
 
+/**
+ * Encodes rows for COPY in text format. Fields are written straight into a
+ * UTF-8 buffer, which is passed to the CopyIn once it holds at least
+ * FLUSH_SIZE bytes, so one instance should be reused for all of the rows of a
+ * COPY and flushed before it ends.
+ */
 public class DataCopierRow {
-    private List<String> mValues = new ArrayList<String>();
+    public final static int FLUSH_SIZE = 1024 * 1024;
+
+    private final static double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+
+    // larger values are written with Double.toString
+    private final static double MAX_DECIMAL = 1e15;
+
+    protected CopyIn mCopier;
+
+    protected byte[] mBuffer = new byte[64 * 1024];
+    protected int mLength = 0;
+
+    // the start of the row being encoded, everything before it is complete
+    protected int mRowStart = 0;
+    protected int mFieldCount = 0;
+
+    private byte mSeparator;
+
+    public DataCopierRow(CopyIn copier, String separator) {
+        mCopier = copier;
+        mSeparator = (byte) separator.charAt(0);
+    }
+
+    protected DataCopierRow(CopyIn copier) {
+        mCopier = copier;
+    }
+
+    private void startField() {
+        if (mFieldCount++ > 0) {
+            ensureCapacity(1);
+            mBuffer[mLength++] = mSeparator;
+        }
+    }
 
     public void add(String value) {
-        mValues.add(value);
+        startField();
+
+        if (value != null) {
+            writeChars(value, true);
+        }
     }
-    
+
+    public void add(CharSequence value) {
+        startField();
+
+        if (value != null) {
+            writeChars(value, true);
+        }
+    }
+
     public void add(int value) {
-        mValues.add(Integer.toString(value));
+        startField();
+        writeDecimal(value, 0);
     }
 
     public void add(long value) {
-        mValues.add(Long.toString(value));
+        startField();
+
+        if (value == Long.MIN_VALUE) {
+            writeChars(Long.toString(value), false);
+        }
+        else {
+            writeDecimal(value, 0);
+        }
     }
 
     public void add(float value) {
-        mValues.add(Float.toString(value));
+        startField();
+        writeChars(Float.toString(value), false);
     }
 
     public void add(double value) {
-        mValues.add(Double.toString(value));
+        startField();
+        writeDouble(value);
     }
 
     public void addNull() {
-        add("");
+        startField();
     }
-    
+
     public void addNull(int count) {
-        for (int i = 1 ; i <= count; i++) {
+        for (int i = 1; i <= count; i++) {
             addNull();
         }
     }
 
-    public byte[] getBytes(String separator) {
-        return getString(separator).getBytes();
+    /**
+     * Completes the current row. The buffer is flushed once it is full.
+     */
+    public void endRow() throws SQLException {
+        ensureCapacity(1);
+        mBuffer[mLength++] = '\n';
+
+        mFieldCount = 0;
+        mRowStart = mLength;
+
+        if (mRowStart >= FLUSH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all complete rows to the CopyIn. This must be called before the
+     * COPY is ended.
+     */
+    public void flush() throws SQLException {
+        if (mRowStart == 0) {
+            return;
+        }
+
+        mCopier.writeToCopy(mBuffer, 0, mRowStart);
+
+        System.arraycopy(mBuffer, mRowStart, mBuffer, 0, mLength - mRowStart);
+        mLength -= mRowStart;
+        mRowStart = 0;
+    }
+
+    protected void ensureCapacity(int size) {
+        if (mLength + size > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLength + size)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
     }
-    
-    public String getString(String separator) {
-        return toString(mValues, separator);
+
+    /**
+     * Writes value as UTF-8. If escape is set, backslashes, line breaks, tabs
+     * and the separator are escaped as required by the COPY text format.
+     */
+    protected void writeChars(CharSequence value, boolean escape) {
+        int length = value.length();
+
+        // an escaped character takes 2 bytes, a surrogate pair 4 and any other character at most 3
+        ensureCapacity(length * 3);
+
+        byte[] buffer = mBuffer;
+        int pos = mLength;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                if (escape && (c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == mSeparator)) {
+                    buffer[pos++] = '\\';
+
+                    if (c == '\n') {
+                        c = 'n';
+                    }
+                    else if (c == '\r') {
+                        c = 'r';
+                    }
+                    else if (c == '\t') {
+                        c = 't';
+                    }
+                }
+
+                buffer[pos++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                buffer[pos++] = (byte) (0xC0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+
+                    buffer[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                }
+                else {
+                    // unpaired surrogates are replaced, as String.getBytes does
+                    buffer[pos++] = '?';
+                }
+            }
+            else {
+                buffer[pos++] = (byte) (0xE0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        mLength = pos;
     }
 
-    private String toString(List<String> parts, String separator) {
-        String ret = "";
-        
-        int i = 0;
-        for (String part : parts) {
-            if (i++ > 0) {
-                ret += separator;
+    /**
+     * Writes value with as few decimal places as are needed to read it back
+     * exactly, falling back to Double.toString for values that cannot be
+     * written with at most 9 places.
+     */
+    private void writeDouble(double value) {
+        if (value == 0) {
+            writeDecimal(0, 0);
+            return;
+        }
+
+        for (int scale = 0; scale < POWERS_OF_TEN.length; scale++) {
+            double scaled = value * POWERS_OF_TEN[scale];
+
+            if (Math.abs(scaled) >= MAX_DECIMAL) {
+                break;
+            }
+
+            long digits = (long) scaled;
+
+            // digits and the power of ten are exact, so the division is correctly rounded
+            if (digits == scaled && digits / POWERS_OF_TEN[scale] == value) {
+                writeDecimal(digits, scale);
+                return;
             }
-            
-            ret += part;
         }
-        return ret + "\n";
+
+        writeChars(Double.toString(value), false);
     }
 
-    public void write(CopyIn copier, String separator) throws SQLException {
-        byte[] bytes = getBytes(separator);
-        copier.writeToCopy(bytes, 0, bytes.length);
+    /**
+     * Writes digits with a decimal point before the last scale digits.
+     * digits must not be Long.MIN_VALUE.
+     */
+    private void writeDecimal(long digits, int scale) {
+        ensureCapacity(21 + scale);
+
+        if (digits < 0) {
+            mBuffer[mLength++] = '-';
+            digits = -digits;
+        }
+
+        int count = 1;
+        for (long rest = digits / 10; rest > 0; rest /= 10) {
+            count++;
+        }
+
+        count = Math.max(count, scale + 1);
+
+        int pos = mLength + count + (scale > 0 ? 1 : 0);
+        mLength = pos;
+
+        for (int i = 0; i < count; i++) {
+            if (scale > 0 && i == scale) {
+                mBuffer[--pos] = '.';
+            }
+
+            mBuffer[--pos] = (byte) ('0' + (digits % 10));
+            digits /= 10;
+        }
     }
 }
@@ -3,89 +3,601 @@ package com.transitfeeds.gtfs;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
 
 public class GtfsOptimizer {
     private Connection mConnection;
 
+    private int mMinBatch = BatchSizer.DEFAULT_MIN_BATCH;
+    private int mMaxBatch = BatchSizer.DEFAULT_MAX_BATCH;
+
+    // the load that filled the database, if it was done in this process
+    private LoadContext mContext;
+
+    // connections used alongside mConnection to optimize ranges of trips
+    private List<Connection> mRangeConnections = new ArrayList<Connection>();
+
+    // whether finalize runs VACUUM on SQLite
+    private boolean mVacuum = true;
+
+    // whether finalize runs VACUUM (FREEZE) on the big tables on PostgreSQL
+    private boolean mFreeze = false;
+
+    // whether the trip patterns are built
+    private boolean mPatterns = false;
+
+    // whether the stop_departures table is built
+    private boolean mDepartures = false;
+
+    // tables created by the optimizer, which finalize analyzes with the loaded ones
+    private List<String> mCreatedTables = new ArrayList<String>();
+
+    // the first batch size, BatchSizer adjusts it from there
+    private final static int UPDATE_BATCH_SIZE = 1000;
+
+    // trip indexes are read with a cursor this many rows at a time
+    private final static int FETCH_SIZE = 10000;
+
+    // ranges per connection, so that one slow range does not hold up the end
+    private final static int RANGES_PER_CONNECTION = 4;
+
+    // tables loaded from files at least this big are frozen by finalize
+    private final static long FREEZE_MIN_BYTES = 64 * 1024 * 1024;
+
     public GtfsOptimizer(Connection connection) {
         mConnection = connection;
     }
 
+    /**
+     * Sets the bounds within which the number of rows updated per batch is
+     * adjusted.
+     */
+    public void setBatchBounds(int min, int max) {
+        mMinBatch = min;
+        mMaxBatch = max;
+    }
+
+    /**
+     * Sets the context of the GtfsParser that loaded the database. Figures
+     * that were gathered while loading are then used rather than queried.
+     */
+    public void setContext(LoadContext context) {
+        mContext = context;
+    }
+
+    /**
+     * Adds a connection to the same database. With added connections the
+     * trips are divided into ranges of trip_index, which are optimized on
+     * all of the connections at once.
+     */
+    public void addConnection(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        mRangeConnections.add(connection);
+    }
+
+    /**
+     * Sets whether finalize runs VACUUM on SQLite. A database that is being
+     * built by SqliteBulkBuilder is vacuumed when the builder finishes it,
+     * after the optimizer is done, so it need not be vacuumed here as well.
+     */
+    public void setVacuum(boolean vacuum) {
+        mVacuum = vacuum;
+    }
+
+    /**
+     * Sets whether finalize runs VACUUM (FREEZE) on the big tables on
+     * PostgreSQL, so that their rows do not have to be frozen later while the
+     * database is in use.
+     */
+    public void setFreeze(boolean freeze) {
+        mFreeze = freeze;
+    }
+
+    /**
+     * Sets whether the trips that stop at the same stops at the same times
+     * relative to their departure are grouped into patterns, which are
+     * written to the patterns and pattern_stops tables.
+     */
+    public void setPatterns(boolean patterns) {
+        mPatterns = patterns;
+    }
+
+    /**
+     * Sets whether the departures from each stop are copied to the
+     * stop_departures table, in order of stop and departure time, so that
+     * the next departures from a stop can be read with one range scan.
+     */
+    public void setDepartures(boolean departures) {
+        mDepartures = departures;
+    }
+
+    private BatchSizer getSizer(String name) {
+        // the updates are committed once, at the end of each range
+        return new BatchSizer(name, UPDATE_BATCH_SIZE, mMinBatch, mMaxBatch, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    private void executeBatch(PreparedStatement update, int rows, BatchSizer sizer) throws SQLException {
+        long start = System.nanoTime();
+        update.executeBatch();
+        sizer.executed(rows, System.nanoTime() - start);
+    }
+
+    private void executeBatch(BatchInsert insert, int rows, BatchSizer sizer) throws SQLException {
+        long start = System.nanoTime();
+        insert.executeBatch();
+        sizer.executed(rows, System.nanoTime() - start);
+    }
+
     public void optimize() throws SQLException {
-        updateStopSequence();
-        calculateTripTimes();
+        long start = System.nanoTime();
+
+        optimizeTrips();
+        System.err.println(String.format("Optimized trips in %.2fs", (System.nanoTime() - start) / 1e9));
+
+        if (mPatterns) {
+            start = System.nanoTime();
+
+            buildPatterns();
+            System.err.println(String.format("Built trip patterns in %.2fs", (System.nanoTime() - start) / 1e9));
+        }
+
+        if (mDepartures) {
+            start = System.nanoTime();
+
+            buildDepartures();
+            System.err.println(String.format("Built stop departures in %.2fs", (System.nanoTime() - start) / 1e9));
+        }
+
         finalize();
     }
 
     public void finalize() throws SQLException {
+        long start = System.nanoTime();
+        String product = mConnection.getMetaData().getDatabaseProductName();
+
         mConnection.setAutoCommit(true);
-        
-        String[] queries = {
-//                "DELETE FROM stops WHERE stop_index NOT IN (SELECT DISTINCT stop_index FROM stop_times)",
-                "VACUUM",
-                "ANALYZE"
-        };
-        
+
+        if ("PostgreSQL".equals(product)) {
+            finalizePostgres();
+        }
+        else if ("SQLite".equals(product)) {
+            finalizeSqlite();
+        }
+        else {
+            Statement st = mConnection.createStatement();
+            executeStep(st, "VACUUM");
+            executeStep(st, "ANALYZE");
+            st.close();
+        }
+
+        System.err.println(String.format("Finalized in %.2fs", (System.nanoTime() - start) / 1e9));
+        System.err.println("DONE");
+    }
+
+    /**
+     * Returns the tables that were loaded with the size of their files, and
+     * the tables created here, or null if the loaded tables are not known.
+     */
+    private Map<String, Long> getFinalizedTables() {
+        if (mContext == null) {
+            return null;
+        }
+
+        Map<String, Long> tables = mContext.getLoadedTables();
+
+        for (String table : mCreatedTables) {
+            if (!tables.containsKey(table)) {
+                tables.put(table, 0L);
+            }
+        }
+
+        return tables;
+    }
+
+    /**
+     * Analyzes the tables that were loaded, and freezes the big ones if asked
+     * to, on all connections at once. The schema was created by the load, so
+     * there is nothing else for VACUUM to do.
+     */
+    private void finalizePostgres() throws SQLException {
+        final Map<String, Long> tables = getFinalizedTables();
+
+        if (tables == null || tables.size() == 0) {
+            Statement st = mConnection.createStatement();
+            executeStep(st, mFreeze ? "VACUUM (FREEZE, ANALYZE)" : "ANALYZE");
+            st.close();
+            return;
+        }
+
+        // the biggest tables are started first, so that they do not finish last
+        List<String> names = new ArrayList<String>(tables.keySet());
+
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return tables.get(b).compareTo(tables.get(a));
+            }
+        });
+
+        List<ConnectionTask> tasks = new ArrayList<ConnectionTask>();
+
+        for (String name : names) {
+            final String query = mFreeze && tables.get(name) >= FREEZE_MIN_BYTES ? "VACUUM (FREEZE, ANALYZE) " + name : "ANALYZE " + name;
+
+            tasks.add(new ConnectionTask() {
+                @Override
+                public void run(Connection connection) throws SQLException {
+                    Statement st = connection.createStatement();
+                    executeStep(st, query);
+                    st.close();
+                }
+            });
+        }
+
+        // VACUUM cannot run inside a transaction
+        for (Connection connection : mRangeConnections) {
+            connection.setAutoCommit(true);
+        }
+
+        runConcurrently(tasks, "Finalizing");
+    }
+
+    /**
+     * Analyzes the tables that were loaded, after a VACUUM unless the
+     * database was bulk-built.
+     */
+    private void finalizeSqlite() throws SQLException {
+        Map<String, Long> tables = getFinalizedTables();
         Statement st = mConnection.createStatement();
 
-        for (int i = 0; i < queries.length; i++) {
-            String query = queries[i];
+        if (mVacuum) {
+            executeStep(st, "VACUUM");
+        }
+        else {
+            System.err.println("Skipping VACUUM, the bulk-built database is vacuumed when it is finished");
+        }
 
-            System.err.println(query);
-            st.executeUpdate(query);
+        if (tables == null || tables.size() == 0) {
+            executeStep(st, "ANALYZE");
+        }
+        else {
+            for (String name : tables.keySet()) {
+                executeStep(st, "ANALYZE " + name);
+            }
         }
-        
+
         st.close();
-        
-        System.err.println("DONE");
     }
-    
-    private void updateStopSequence() throws SQLException {
+
+    /**
+     * Sets last_stop and the trip times, for all trips on mConnection or for
+     * ranges of trips on all connections.
+     */
+    private void optimizeTrips() throws SQLException {
+        final TripStats stats = mContext != null ? mContext.getTripStats() : null;
+        final BatchSizer lastStopSizer = getSizer("last_stop");
+        final BatchSizer tripTimesSizer = getSizer("trip_times");
+
+        if (mRangeConnections.size() == 0) {
+            optimizeTrips(mConnection, Integer.MIN_VALUE, Integer.MAX_VALUE, stats, lastStopSizer, tripTimesSizer);
+
+            System.err.println(lastStopSizer);
+            System.err.println(tripTimesSizer);
+            return;
+        }
+
         Statement st = mConnection.createStatement();
-        ResultSet result = st.executeQuery("SELECT trip_index FROM trips");
+        ResultSet bounds = st.executeQuery("SELECT min(trip_index), max(trip_index) FROM trips");
+
+        bounds.next();
+        long min = bounds.getLong(1);
+        long max = bounds.getLong(2);
+
+        st.close();
+
+        final int ranges = (mRangeConnections.size() + 1) * RANGES_PER_CONNECTION;
+        final AtomicInteger finished = new AtomicInteger();
+        long size = (max - min) / ranges + 1;
+
+        List<ConnectionTask> tasks = new ArrayList<ConnectionTask>();
+
+        for (long first = min; first <= max; first += size) {
+            final int from = (int) first;
+            final int to = (int) Math.min(max, first + size - 1);
 
-        PreparedStatement update = mConnection.prepareStatement("UPDATE stop_times SET last_stop = 1 WHERE trip_index = ? AND stop_sequence = (SELECT max(stop_sequence) FROM stop_times WHERE trip_index = ?)");
+            tasks.add(new ConnectionTask() {
+                @Override
+                public void run(Connection connection) throws SQLException {
+                    try {
+                        long start = System.nanoTime();
+                        int trips = optimizeTrips(connection, from, to, stats, lastStopSizer, tripTimesSizer);
+
+                        System.err.println(String.format("Trips %d-%d: %d trips in %.2fs, %d of %d ranges done", from, to, trips, (System.nanoTime() - start) / 1e9, finished.incrementAndGet(), ranges));
+                    } catch (SQLException se) {
+                        connection.rollback();
+                        throw se;
+                    }
+                }
+            });
+        }
+
+        runConcurrently(tasks, "Optimizing trips");
+
+        System.err.println(lastStopSizer);
+        System.err.println(tripTimesSizer);
+    }
+
+    /**
+     * Sets last_stop and the trip times of the trips with a trip_index from
+     * from to to, and commits them.
+     *
+     * @return the number of trips
+     */
+    private int optimizeTrips(Connection connection, int from, int to, TripStats stats, BatchSizer lastStopSizer, BatchSizer tripTimesSizer) throws SQLException {
+        int[] trips = getTrips(connection, from, to);
+
+        if (stats != null) {
+            updateLastStops(connection, from, to, trips, stats, lastStopSizer);
+            updateTripTimes(connection, from, to, trips, stats, tripTimesSizer);
+        }
+        else {
+            updateStopSequence(connection, trips, lastStopSizer);
+            calculateTripTimes(connection, trips, tripTimesSizer);
+        }
+
+        connection.commit();
+
+        return trips.length;
+    }
+
+    /**
+     * Reads the trip indexes from from to to through a cursor, so that the
+     * driver does not hold all of the rows at once.
+     */
+    private int[] getTrips(Connection connection, int from, int to) throws SQLException {
+        PreparedStatement select = connection.prepareStatement("SELECT DISTINCT trip_index FROM trips WHERE trip_index BETWEEN ? AND ?");
+        select.setFetchSize(FETCH_SIZE);
+        select.setInt(1, from);
+        select.setInt(2, to);
+
+        ResultSet result = select.executeQuery();
+
+        int[] trips = new int[1024];
+        int count = 0;
 
-        int row = 0;
-        
         while (result.next()) {
-            int tripIndex = result.getInt(1);
+            if (count == trips.length) {
+                trips = Arrays.copyOf(trips, count * 2);
+            }
+            trips[count++] = result.getInt(1);
+        }
 
+        result.close();
+        select.close();
+
+        return Arrays.copyOf(trips, count);
+    }
+
+    private void updateStopSequence(Connection connection, int[] trips, BatchSizer sizer) throws SQLException {
+        PreparedStatement update = connection.prepareStatement("UPDATE stop_times SET last_stop = 1 WHERE trip_index = ? AND stop_sequence = (SELECT max(stop_sequence) FROM stop_times WHERE trip_index = ?)");
+
+        int pending = 0;
+
+        for (int tripIndex : trips) {
             update.setInt(1, tripIndex);
             update.setInt(2, tripIndex);
-            
+
             update.addBatch();
-            
-            if ((row % 1000) == 0) {
-                update.executeBatch();
-                System.err.println(String.format("%d", row));
+
+            if (++pending >= sizer.getBatchSize()) {
+                executeBatch(update, pending, sizer);
+                pending = 0;
             }
-            
-            row++;
         }
-        
+
         update.executeBatch();
-        mConnection.commit();
-        
-        st.close();
         update.close();
     }
 
-    private void calculateTripTimes() throws SQLException {
-        Statement st = mConnection.createStatement();
-        ResultSet result = st.executeQuery("SELECT trip_index FROM trips");
-        
-        PreparedStatement update = mConnection.prepareStatement("UPDATE trips SET departure_time = ?, departure_time_secs = ?, arrival_time = ?, arrival_time_secs = ? WHERE trip_index = ?");
-
-        PreparedStatement select = mConnection.prepareStatement("SELECT arrival_time, arrival_time_secs, departure_time, departure_time_secs FROM stop_times WHERE trip_index = ? ORDER BY stop_sequence");
-        
-        int row = 0;
-        
-        while (result.next()) {
-            int tripIndex = result.getInt(1);
+    /**
+     * Sets last_stop from the last stop_sequence of each trip as counted
+     * while stop_times was loaded. The last stops are inserted into a
+     * temporary table, and stop_times is updated from it in one statement.
+     */
+    private void updateLastStops(Connection connection, int from, int to, int[] trips, TripStats stats, BatchSizer sizer) throws SQLException {
+        boolean sqlite = "SQLite".equals(connection.getMetaData().getDatabaseProductName());
+        boolean withoutRowid = sqlite && !hasRowid(connection, "stop_times");
+
+        Statement st = connection.createStatement();
+        st.execute("CREATE TEMPORARY TABLE last_stops (trip_index INTEGER" + (withoutRowid ? " PRIMARY KEY" : "") + ", stop_sequence INTEGER)");
+
+        BatchInsert insert = new BatchInsert(connection, "last_stops", new String[] { "trip_index", "stop_sequence" });
+
+        int pending = 0;
+
+        for (int tripIndex : trips) {
+            int stopSequence = stats.getLastSequence(tripIndex);
+
+            if (stopSequence == TripStats.NONE) {
+                continue;
+            }
+
+            insert.setInt(1, tripIndex);
+            insert.setInt(2, stopSequence);
+            insert.addBatch();
+
+            if (++pending >= sizer.getBatchSize()) {
+                executeBatch(insert, pending, sizer);
+                pending = 0;
+            }
+        }
+
+        insert.executeBatch();
+        insert.close();
+
+        String query;
+
+        if (withoutRowid) {
+            // there is no rowid, but the primary key of stop_times starts with trip_index
+            query = "UPDATE stop_times SET last_stop = 1 WHERE trip_index IN (SELECT trip_index FROM last_stops) AND stop_sequence = (SELECT stop_sequence FROM last_stops l WHERE l.trip_index = stop_times.trip_index)";
+        }
+        else if (sqlite) {
+            // SQLite cannot join in an UPDATE, so the rows are found through the trip_index index
+            query = "UPDATE stop_times SET last_stop = 1 WHERE rowid IN (SELECT s.rowid FROM last_stops l, stop_times s WHERE s.trip_index = l.trip_index AND s.stop_sequence = l.stop_sequence)";
+        }
+        else {
+            st.execute("ANALYZE last_stops");
+            query = String.format("UPDATE stop_times SET last_stop = 1 WHERE trip_index BETWEEN %d AND %d AND EXISTS (SELECT 1 FROM last_stops l WHERE l.trip_index = stop_times.trip_index AND l.stop_sequence = stop_times.stop_sequence)", from, to);
+        }
+
+        execute(st, query);
+
+        st.execute("DROP TABLE last_stops");
+        st.close();
+    }
+
+    /**
+     * Sets the departure and arrival of each trip from its first and last
+     * stop as found while stop_times was loaded. They are written to a
+     * temporary table, with COPY on PostgreSQL, and trips is updated from it
+     * in one statement.
+     */
+    private void updateTripTimes(Connection connection, int from, int to, int[] trips, TripStats stats, BatchSizer sizer) throws SQLException {
+        Statement st = connection.createStatement();
+        st.execute("CREATE TEMPORARY TABLE trip_times (trip_index INTEGER PRIMARY KEY, departure_time TEXT, departure_time_secs INTEGER, arrival_time TEXT, arrival_time_secs INTEGER)");
+
+        String[] fields = { "trip_index", "departure_time", "departure_time_secs", "arrival_time", "arrival_time_secs" };
+        boolean copy = connection instanceof BaseConnection;
+
+        CopyIn copier = null;
+        DataCopierRow row = null;
+        BatchInsert insert = null;
+
+        if (copy) {
+            CopyManager cm = new CopyManager((BaseConnection) connection);
+            copier = cm.copyIn("COPY trip_times FROM STDIN WITH DELIMITER '\t' NULL AS ''");
+            row = new DataCopierRow(copier, "\t");
+        }
+        else {
+            insert = new BatchInsert(connection, "trip_times", fields);
+        }
+
+        int pending = 0;
+
+        for (int tripIndex : trips) {
+            // trips without stops are set as the query for each trip did
+            String departureTime = null;
+            int departureSecs = -1;
+            String arrivalTime = null;
+            int arrivalSecs = -1;
+
+            if (stats.hasStops(tripIndex)) {
+                departureTime = stats.getDepartureTime(tripIndex);
+                departureSecs = stats.getDepartureSecs(tripIndex);
+                arrivalTime = stats.getArrivalTime(tripIndex);
+                arrivalSecs = stats.getArrivalSecs(tripIndex);
+            }
+
+            if (copy) {
+                row.add(tripIndex);
+                row.add(departureTime);
+                row.add(departureSecs);
+                row.add(arrivalTime);
+                row.add(arrivalSecs);
+                row.endRow();
+            }
+            else {
+                insert.setInt(1, tripIndex);
+
+                if (departureTime == null) {
+                    insert.setNull(2, Types.VARCHAR);
+                }
+                else {
+                    insert.setString(2, departureTime);
+                }
+
+                insert.setInt(3, departureSecs);
+
+                if (arrivalTime == null) {
+                    insert.setNull(4, Types.VARCHAR);
+                }
+                else {
+                    insert.setString(4, arrivalTime);
+                }
+
+                insert.setInt(5, arrivalSecs);
+                insert.addBatch();
+
+                if (++pending >= sizer.getBatchSize()) {
+                    executeBatch(insert, pending, sizer);
+                    pending = 0;
+                }
+            }
+        }
+
+        String query;
+
+        if (copy) {
+            row.flush();
+            copier.endCopy();
+
+            st.execute("ANALYZE trip_times");
+            query = "UPDATE trips SET departure_time = t.departure_time, departure_time_secs = t.departure_time_secs, arrival_time = t.arrival_time, arrival_time_secs = t.arrival_time_secs FROM trip_times t WHERE trips.trip_index = t.trip_index";
+        }
+        else {
+            insert.executeBatch();
+            insert.close();
+
+            // without UPDATE ... FROM each column is looked up by the primary key
+            String[] columns = { "departure_time", "departure_time_secs", "arrival_time", "arrival_time_secs" };
+            query = "UPDATE trips SET ";
+
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    query += ", ";
+                }
+                query += String.format("%s = (SELECT %s FROM trip_times t WHERE t.trip_index = trips.trip_index)", columns[i], columns[i]);
+            }
+
+            query += String.format(" WHERE trip_index BETWEEN %d AND %d", from, to);
+        }
 
+        execute(st, query);
+
+        st.execute("DROP TABLE trip_times");
+        st.close();
+    }
+
+    private void calculateTripTimes(Connection connection, int[] trips, BatchSizer sizer) throws SQLException {
+        PreparedStatement update = connection.prepareStatement("UPDATE trips SET departure_time = ?, departure_time_secs = ?, arrival_time = ?, arrival_time_secs = ? WHERE trip_index = ?");
+
+        PreparedStatement select = connection.prepareStatement("SELECT arrival_time, arrival_time_secs, departure_time, departure_time_secs FROM stop_times WHERE trip_index = ? ORDER BY stop_sequence");
+
+        int pending = 0;
+
+        for (int tripIndex : trips) {
             select.setInt(1, tripIndex);
             ResultSet stopTimes = select.executeQuery();
 
@@ -93,44 +605,494 @@ public class GtfsOptimizer {
             int departureTimeSecs = -1;
             String arrivalTime = null;
             String departureTime = null;
-            
+
             int i = 0;
-            
+
             while (stopTimes.next()) {
                 if (i++ == 0) {
                     departureTime = stopTimes.getString(3);
                     departureTimeSecs = stopTimes.getInt(4);
                 }
-                
+
                 arrivalTime = stopTimes.getString(1);
                 arrivalTimeSecs = stopTimes.getInt(2);
             }
-            
+
             stopTimes.close();
-            
+
             update.setString(1, departureTime);
             update.setInt(2, departureTimeSecs);
             update.setString(3, arrivalTime);
             update.setInt(4, arrivalTimeSecs);
             update.setInt(5, tripIndex);
-            
+
             update.addBatch();
-            
-            if ((row % 1000) == 0) {
-                update.executeBatch();
-                System.err.println(String.format("%d", row));
+
+            if (++pending >= sizer.getBatchSize()) {
+                executeBatch(update, pending, sizer);
+                pending = 0;
             }
-            
-            row++;
         }
-        
+
         update.executeBatch();
-        mConnection.commit();
-        
+
         select.close();
-        st.close();
         update.close();
+    }
+
+    /**
+     * Groups the trips of each route that have the same stops, with the same
+     * stop_sequence, pickup and drop off, at the same times relative to their
+     * departure. Each group is a pattern, whose stops are written once to
+     * pattern_stops with the times as offsets from the departure, and each
+     * trip gets the pattern_index of its group. The stop times of a trip are
+     * then its departure_time_secs plus the offsets of its pattern. Trips
+     * whose first stop has no departure time are left without a pattern.
+     */
+    private void buildPatterns() throws SQLException {
+        Statement st = mConnection.createStatement();
+
+        for (String table : new String[] { "patterns", "pattern_stops" }) {
+            st.execute("DROP TABLE IF EXISTS " + table);
+            mCreatedTables.add(table);
+        }
+
+        st.execute("CREATE TABLE patterns (pattern_index INTEGER, route_index INTEGER, stop_count INTEGER, trip_count INTEGER)");
+        st.execute("CREATE TABLE pattern_stops (pattern_index INTEGER, stop_position INTEGER, stop_sequence INTEGER, stop_index INTEGER, arrival_offset INTEGER, departure_offset INTEGER, pickup_type INTEGER, drop_off_type INTEGER)");
+
+        // the column and its index are kept from an earlier run, but not its
+        // values, as trips that no longer have a pattern must not keep one
+        if (hasColumn(mConnection, "trips", "pattern_index")) {
+            st.execute("DROP INDEX IF EXISTS trips_pattern_index");
+            execute(st, "UPDATE trips SET pattern_index = NULL WHERE pattern_index IS NOT NULL");
+        }
+        else {
+            st.execute("ALTER TABLE trips ADD COLUMN pattern_index INTEGER");
+        }
+
+        int[] routes = getTripRoutes();
+
+        PreparedStatement select = mConnection.prepareStatement("SELECT trip_index, stop_sequence, stop_index, arrival_time_secs, departure_time_secs, pickup_type, drop_off_type FROM stop_times ORDER BY trip_index, stop_sequence");
+        select.setFetchSize(FETCH_SIZE);
+
+        ResultSet result = select.executeQuery();
+
+        Map<Pattern, Integer> patterns = new HashMap<Pattern, Integer>();
+        List<Pattern> patternList = new ArrayList<Pattern>();
+        List<Integer> tripCounts = new ArrayList<Integer>();
+
+        int[] tripPatterns = new int[routes.length];
+        int[] stops = new int[Pattern.FIELDS * 64];
+        int stopCount = 0;
+        int tripIndex = -1;
+        int departure = -1;
+        long rows = 0;
+
+        while (true) {
+            boolean more = result.next();
+            int nextTrip = more ? result.getInt(1) : -1;
+
+            if (stopCount > 0 && (!more || nextTrip != tripIndex)) {
+                if (departure >= 0 && tripIndex >= 0 && tripIndex < routes.length) {
+                    Pattern pattern = new Pattern(routes[tripIndex], Arrays.copyOf(stops, stopCount * Pattern.FIELDS));
+                    Integer patternIndex = patterns.get(pattern);
+
+                    if (patternIndex == null) {
+                        patternList.add(pattern);
+                        tripCounts.add(0);
+
+                        // pattern indexes start at 1 like the other indexes
+                        patternIndex = patternList.size();
+                        patterns.put(pattern, patternIndex);
+                    }
+
+                    tripPatterns[tripIndex] = patternIndex;
+                    tripCounts.set(patternIndex - 1, tripCounts.get(patternIndex - 1) + 1);
+                }
+
+                stopCount = 0;
+            }
+
+            if (!more) {
+                break;
+            }
+
+            if (stopCount == 0) {
+                tripIndex = nextTrip;
+                departure = getSecs(result, 5);
+            }
+
+            if ((stopCount + 1) * Pattern.FIELDS > stops.length) {
+                stops = Arrays.copyOf(stops, stops.length * 2);
+            }
+
+            int pos = stopCount * Pattern.FIELDS;
+            stops[pos] = result.getInt(2);
+            stops[pos + 1] = result.getInt(3);
+            stops[pos + 2] = getOffset(getSecs(result, 4), departure);
+            stops[pos + 3] = getOffset(getSecs(result, 5), departure);
+            stops[pos + 4] = getNullableInt(result, 6);
+            stops[pos + 5] = getNullableInt(result, 7);
+
+            stopCount++;
+            rows++;
+        }
+
         result.close();
+        select.close();
+
+        writePatterns(patternList, tripCounts);
+        updateTripPatterns(tripPatterns);
+
+        String[] indexes = { "patterns", "pattern_index", "patterns", "route_index", "pattern_stops", "pattern_index", "trips", "pattern_index" };
+
+        for (int i = 0; i < indexes.length; i += 2) {
+            executeStep(st, String.format("CREATE INDEX %s_%s ON %s (%s)", indexes[i], indexes[i + 1], indexes[i], indexes[i + 1]));
+        }
+
+        st.close();
+        mConnection.commit();
+
+        long patternStops = 0;
+
+        for (Pattern pattern : patternList) {
+            patternStops += pattern.getStopCount();
+        }
+
+        System.err.println(String.format("%d stop_times rows grouped into %d patterns with %d stops", rows, patternList.size(), patternStops));
+    }
+
+    /**
+     * Copies each departure in stop_times, with the route and service of its
+     * trip, to stop_departures. The rows are inserted in order of stop_index
+     * and departure_time_secs into a new table, so they are stored in that
+     * order, and the index on the two columns finds the first departure at
+     * or after a time and reads on from there. The last stop of each trip,
+     * stops with no pickup and times that could not be read are left out.
+     * Times after midnight stay above 86400, as in stop_times.
+     */
+    private void buildDepartures() throws SQLException {
+        Statement st = mConnection.createStatement();
+
+        st.execute("DROP TABLE IF EXISTS stop_departures");
+        st.execute("CREATE TABLE stop_departures (stop_index INTEGER, departure_time_secs INTEGER, trip_index INTEGER, route_index INTEGER, service_index INTEGER)");
+        mCreatedTables.add("stop_departures");
+
+        execute(st, "INSERT INTO stop_departures (stop_index, departure_time_secs, trip_index, route_index, service_index)"
+                + " SELECT s.stop_index, s.departure_time_secs, s.trip_index, t.route_index, t.service_index FROM stop_times s, trips t"
+                + " WHERE t.trip_index = s.trip_index AND s.departure_time_secs >= 0 AND COALESCE(s.last_stop, 0) = 0 AND COALESCE(s.pickup_type, 0) <> 1"
+                + " ORDER BY s.stop_index, s.departure_time_secs, s.trip_index");
+
+        executeStep(st, "CREATE INDEX stop_departures_stop_index_departure_time_secs ON stop_departures (stop_index, departure_time_secs)");
+
+        st.close();
+        mConnection.commit();
+    }
+
+    /**
+     * Returns the route_index of each trip, indexed by trip_index.
+     */
+    private int[] getTripRoutes() throws SQLException {
+        Statement st = mConnection.createStatement();
+        st.setFetchSize(FETCH_SIZE);
+
+        ResultSet result = st.executeQuery("SELECT trip_index, route_index FROM trips");
+        int[] routes = new int[1024];
+
+        while (result.next()) {
+            int tripIndex = result.getInt(1);
+
+            if (tripIndex < 0) {
+                continue;
+            }
+
+            if (tripIndex >= routes.length) {
+                routes = Arrays.copyOf(routes, Math.max(tripIndex + 1, routes.length * 2));
+            }
+            routes[tripIndex] = result.getInt(2);
+        }
+
+        result.close();
+        st.close();
+
+        return routes;
+    }
+
+    private void writePatterns(List<Pattern> patterns, List<Integer> tripCounts) throws SQLException {
+        BatchSizer sizer = getSizer("patterns");
+        BatchInsert insert = new BatchInsert(mConnection, "patterns", new String[] { "pattern_index", "route_index", "stop_count", "trip_count" });
+        int pending = 0;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            Pattern pattern = patterns.get(i);
+
+            insert.setInt(1, i + 1);
+            insert.setInt(2, pattern.getRouteIndex());
+            insert.setInt(3, pattern.getStopCount());
+            insert.setInt(4, tripCounts.get(i));
+            insert.addBatch();
+
+            if (++pending >= sizer.getBatchSize()) {
+                executeBatch(insert, pending, sizer);
+                pending = 0;
+            }
+        }
+
+        insert.executeBatch();
+        insert.close();
+
+        String[] fields = { "pattern_index", "stop_position", "stop_sequence", "stop_index", "arrival_offset", "departure_offset", "pickup_type", "drop_off_type" };
+        sizer = getSizer("pattern_stops");
+        insert = new BatchInsert(mConnection, "pattern_stops", fields);
+        pending = 0;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            Pattern pattern = patterns.get(i);
+
+            for (int j = 0; j < pattern.getStopCount(); j++) {
+                insert.setInt(1, i + 1);
+                insert.setInt(2, j);
+
+                for (int k = 0; k < Pattern.FIELDS; k++) {
+                    int value = pattern.getField(j, k);
+
+                    if (value == Pattern.NULL) {
+                        insert.setNull(k + 3, Types.INTEGER);
+                    }
+                    else {
+                        insert.setInt(k + 3, value);
+                    }
+                }
+
+                insert.addBatch();
+
+                if (++pending >= sizer.getBatchSize()) {
+                    executeBatch(insert, pending, sizer);
+                    pending = 0;
+                }
+            }
+        }
+
+        insert.executeBatch();
+        insert.close();
+
+        System.err.println(sizer);
+    }
+
+    /**
+     * Sets the pattern_index of the trips through a temporary table, as the
+     * trip times are.
+     */
+    private void updateTripPatterns(int[] tripPatterns) throws SQLException {
+        Statement st = mConnection.createStatement();
+        st.execute("CREATE TEMPORARY TABLE trip_patterns (trip_index INTEGER PRIMARY KEY, pattern_index INTEGER)");
+
+        BatchSizer sizer = getSizer("trip_patterns");
+        BatchInsert insert = new BatchInsert(mConnection, "trip_patterns", new String[] { "trip_index", "pattern_index" });
+        int pending = 0;
+
+        for (int tripIndex = 0; tripIndex < tripPatterns.length; tripIndex++) {
+            if (tripPatterns[tripIndex] == 0) {
+                continue;
+            }
+
+            insert.setInt(1, tripIndex);
+            insert.setInt(2, tripPatterns[tripIndex]);
+            insert.addBatch();
+
+            if (++pending >= sizer.getBatchSize()) {
+                executeBatch(insert, pending, sizer);
+                pending = 0;
+            }
+        }
+
+        insert.executeBatch();
+        insert.close();
+
+        if ("SQLite".equals(mConnection.getMetaData().getDatabaseProductName())) {
+            execute(st, "UPDATE trips SET pattern_index = (SELECT pattern_index FROM trip_patterns t WHERE t.trip_index = trips.trip_index)");
+        }
+        else {
+            st.execute("ANALYZE trip_patterns");
+            execute(st, "UPDATE trips SET pattern_index = t.pattern_index FROM trip_patterns t WHERE trips.trip_index = t.trip_index");
+        }
+
+        st.execute("DROP TABLE trip_patterns");
+        st.close();
+    }
+
+    /**
+     * Returns the seconds in column, or -1 if they are null or negative.
+     */
+    private static int getSecs(ResultSet result, int column) throws SQLException {
+        int secs = result.getInt(column);
+        return result.wasNull() || secs < 0 ? -1 : secs;
+    }
+
+    private static int getOffset(int secs, int departure) {
+        return secs < 0 ? Pattern.NULL : secs - departure;
+    }
+
+    private static int getNullableInt(ResultSet result, int column) throws SQLException {
+        int value = result.getInt(column);
+        return result.wasNull() ? Pattern.NULL : value;
+    }
+
+    /**
+     * The stops of a trip, each as stop_sequence, stop_index, arrival and
+     * departure offsets, pickup_type and drop_off_type, and the route of the
+     * trip.
+     */
+    private static class Pattern {
+        public static final int FIELDS = 6;
+        public static final int NULL = Integer.MIN_VALUE;
+
+        private int mRouteIndex;
+        private int[] mStops;
+        private int mHash;
+
+        public Pattern(int routeIndex, int[] stops) {
+            mRouteIndex = routeIndex;
+            mStops = stops;
+            mHash = 31 * routeIndex + Arrays.hashCode(stops);
+        }
+
+        public int getRouteIndex() {
+            return mRouteIndex;
+        }
+
+        public int getStopCount() {
+            return mStops.length / FIELDS;
+        }
+
+        public int getField(int stop, int field) {
+            return mStops[stop * FIELDS + field];
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Pattern)) {
+                return false;
+            }
+
+            Pattern other = (Pattern) o;
+            return mHash == other.mHash && mRouteIndex == other.mRouteIndex && Arrays.equals(mStops, other.mStops);
+        }
+    }
+
+    /**
+     * Work that is run on whichever connection is free.
+     */
+    private interface ConnectionTask {
+        void run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Runs tasks on mConnection and the added connections at once, each task
+     * on one connection at a time, and waits for all of them.
+     */
+    private void runConcurrently(List<ConnectionTask> tasks, String what) throws SQLException {
+        final BlockingQueue<Connection> connections = new ArrayBlockingQueue<Connection>(mRangeConnections.size() + 1);
+        connections.add(mConnection);
+        connections.addAll(mRangeConnections);
+
+        ExecutorService pool = Executors.newFixedThreadPool(connections.size());
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+
+        try {
+            for (final ConnectionTask task : tasks) {
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // there are as many threads as connections
+                        Connection connection = connections.take();
+
+                        try {
+                            task.run(connection);
+                            return null;
+                        } finally {
+                            connections.put(connection);
+                        }
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof SQLException) {
+                        throw (SQLException) ee.getCause();
+                    }
+                    throw new SQLException(what + " failed", ee.getCause());
+                } catch (InterruptedException ie) {
+                    throw new SQLException(what + " was interrupted", ie);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a statement that returns no rows and reports how long it took.
+     */
+    private void executeStep(Statement st, String query) throws SQLException {
+        long start = System.nanoTime();
+        st.execute(query);
+        System.err.println(String.format("%s in %.2fs", query, (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Returns whether an SQLite table has a rowid, which it does unless it
+     * was created WITHOUT ROWID.
+     */
+    private static boolean hasRowid(Connection connection, String table) throws SQLException {
+        PreparedStatement select = connection.prepareStatement("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?");
+        select.setString(1, table);
+
+        ResultSet result = select.executeQuery();
+        String sql = result.next() ? result.getString(1) : null;
+
+        result.close();
+        select.close();
+
+        return sql == null || !sql.toUpperCase().replaceAll("\\s+", " ").contains("WITHOUT ROWID");
+    }
+
+    /**
+     * Returns whether table has a column named column.
+     */
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        Statement st = connection.createStatement();
+        ResultSet result = st.executeQuery("SELECT * FROM " + table + " WHERE 1 = 0");
+        ResultSetMetaData meta = result.getMetaData();
+
+        boolean found = false;
+
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(meta.getColumnName(i))) {
+                found = true;
+            }
+        }
+
+        result.close();
+        st.close();
+
+        return found;
+    }
+
+    private void execute(Statement st, String query) throws SQLException {
+        System.err.println(query);
+
+        long start = System.nanoTime();
+        int rows = st.executeUpdate(query);
+        System.err.println(String.format("%d rows in %.2fs", rows, (System.nanoTime() - start) / 1e9));
     }
 
 }
@@ -5,19 +5,31 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.input.BOMInputStream;
 import org.mozilla.universalchardet.UniversalDetector;
@@ -26,6 +38,7 @@ import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
 
 import com.csvreader.CsvReader;
+import com.csvreader.MappedCsvReader;
 
 public class GtfsParser {
 
@@ -35,6 +48,54 @@ public class GtfsParser {
     
     private final static String COPY_SEPARATOR = "\t";
 
+    // files smaller than this are parsed on the calling thread, larger ones
+    // are read, encoded and written by a pipeline of threads
+    private final static long PIPELINE_MIN_FILE_SIZE = 1024 * 1024;
+    private final static long CHUNK_SIZE = 4 * 1024 * 1024;
+    private final static int COPY_BLOCK_SIZE = 1024 * 1024;
+    // the first batch size, BatchSizer adjusts it from there
+    private final static int INSERT_BATCH_SIZE = 10000;
+
+    private final static long[] END_OF_CHUNKS = new long[0];
+
+    private int mParserThreads = 1;
+
+    private int mMinBatch = BatchSizer.DEFAULT_MIN_BATCH;
+    private int mMaxBatch = BatchSizer.DEFAULT_MAX_BATCH;
+    private int mMinCommit = BatchSizer.DEFAULT_MIN_COMMIT;
+    private int mMaxCommit = BatchSizer.DEFAULT_MAX_COMMIT;
+    private boolean mBinaryCopy = false;
+
+    // connections used alongside mConnection to load files concurrently
+    private List<Connection> mLoadConnections = new ArrayList<Connection>();
+
+    // where the id dictionaries are kept from one run to the next, if anywhere
+    private File mIdDirectory;
+
+    private LoadContext mContext;
+
+    private String mIndexProfile = DEFAULT_INDEX_PROFILE;
+
+    // connections used to build indexes while files are loaded, if any
+    private List<Connection> mIndexConnections = new ArrayList<Connection>();
+    private String mIndexMemory;
+    private IndexScheduler mIndexScheduler;
+
+    // the tables whose indexes have been scheduled
+    private Set<String> mIndexedTables = new HashSet<String>();
+
+    // the memory used to sort stop_times before it is loaded, 0 not to sort it
+    private long mSortMemory = 0;
+    private File mSortDirectory;
+
+    // whether the tables in WITHOUT_ROWID_KEYS are created WITHOUT ROWID when
+    // the database is SQLite 3.8.2 or later, and whether they were
+    private boolean mWithoutRowid = false;
+    private boolean mUseWithoutRowid = false;
+
+    // whether rows of those tables replace earlier rows with the same key
+    private boolean mReplaceDuplicates = false;
+
     public GtfsParser(File gtfsFile, Connection connection) throws FileNotFoundException, SQLException, Exception {
         if (!gtfsFile.exists()) {
             throw new FileNotFoundException("GTFS file not found");
@@ -70,10 +131,186 @@ public class GtfsParser {
     };
 
 
+    // the profile that creates the indexes listed in TABLES
+    public static final String DEFAULT_INDEX_PROFILE = "default";
+
+    // the indexes of the other profiles, as table and index pairs. Indexes are
+    // separated by commas, and the columns of a composite index by +
+    private static String[] MINIMAL_INDEXES = {
+            "stops", "stop_index",
+            "routes", "route_index",
+            "trips", "trip_index",
+            "stop_times", "trip_index+stop_sequence",
+            "calendar", "service_index",
+            "calendar_dates", "service_index",
+            "shapes", "shape_index+shape_pt_sequence",
+            "frequencies", "trip_index"
+    };
+
+    private static String[] ROUTING_INDEXES = {
+            "stops", "stop_index",
+            "routes", "route_index",
+            "trips", "trip_index,route_index,service_index",
+            "stop_times", "trip_index+stop_sequence,stop_index+trip_index",
+            "calendar", "service_index",
+            "calendar_dates", "service_index",
+            "shapes", "shape_index+shape_pt_sequence",
+            "frequencies", "trip_index",
+            "transfers", "from_stop_index",
+            "fare_rules", "fare_index"
+    };
+
+    // stop_index+departure_time_secs+trip_index covers "next departures at a stop"
+    private static String[] BOARD_INDEXES = {
+            "stops", "stop_index,stop_id,stop_code",
+            "routes", "route_index,route_id",
+            "trips", "trip_index,route_index",
+            "stop_times", "trip_index+stop_sequence,stop_index+departure_time_secs+trip_index",
+            "calendar", "service_index",
+            "calendar_dates", "service_index",
+            "shapes", "shape_index+shape_pt_sequence",
+            "frequencies", "trip_index"
+    };
+
+    // the primary keys of the tables that are created WITHOUT ROWID on SQLite,
+    // which then hold their rows in the order of the key with no separate
+    // index for it. A row with the same key as an earlier one fails the load
+    // of the table, unless duplicates are set to replace the earlier rows
+    private static String[] WITHOUT_ROWID_KEYS = {
+            "stop_times", "trip_index,stop_sequence",
+            "shapes", "shape_index,shape_pt_sequence"
+    };
+
+    // the memory used to sort tables created WITHOUT ROWID into key order
+    private static final long DEFAULT_SORT_MEMORY = 64 * 1024 * 1024;
+
+    // the tables that must be loaded before each table. IDs are numbered in
+    // the order they are first seen, so each table waits for the table that
+    // defines the IDs it refers to, and for any other table that can add IDs
+    // it has not seen (calendar before calendar_dates, stop_times before
+    // transfers) so that they are numbered as in a sequential load
+    private static String[] DEPENDENCIES = {
+            "trips", "routes",
+            "stop_times", "stops,trips",
+            "calendar", "trips",
+            "calendar_dates", "trips,calendar",
+            "shapes", "trips",
+            "fare_rules", "stops,routes,fare_attributes",
+            "frequencies", "trips",
+            "transfers", "stops,stop_times"
+    };
+
     public void parse() throws Exception {
+        mContext = mIdDirectory != null ? new LoadContext(mIdDirectory) : new LoadContext();
+        mUseWithoutRowid = mWithoutRowid && supportsWithoutRowid();
+
         createGtfsTables();
-        parseFiles();
-        createIndexes();
+
+        if (mIndexConnections.size() > 0) {
+            mIndexScheduler = new IndexScheduler(mIndexConnections, mIndexMemory);
+            mIndexedTables.clear();
+        }
+
+        try {
+            parseFiles();
+            mContext.saveIds();
+            createIndexes();
+        } finally {
+            // createIndexes has waited for the scheduler unless something failed
+            if (mIndexScheduler != null) {
+                mIndexScheduler.abort();
+                mIndexScheduler = null;
+            }
+        }
+
+        createServiceDays();
+    }
+
+    /**
+     * Expands calendar and calendar_dates into the days of each service, and
+     * writes them to the service_days table.
+     */
+    private void createServiceDays() throws SQLException {
+        Map<String, Long> tables = mContext.getLoadedTables();
+
+        if (!tables.containsKey("calendar") && !tables.containsKey("calendar_dates")) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        ServiceCalendar calendar = ServiceCalendar.build(mConnection);
+
+        calendar.write(mConnection);
+        mConnection.commit();
+
+        mContext.setServiceCalendar(calendar);
+        mContext.addLoadedTable(ServiceCalendar.TABLE, 0);
+
+        System.err.println(String.format("Created %s in %.2fs", ServiceCalendar.TABLE, (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Returns the context of the last call to parse.
+     */
+    public LoadContext getContext() {
+        return mContext;
+    }
+
+    /**
+     * Returns whether the database is SQLite 3.8.2 or later, which is when
+     * WITHOUT ROWID tables were added.
+     */
+    private boolean supportsWithoutRowid() throws SQLException {
+        if (!"SQLite".equals(mConnection.getMetaData().getDatabaseProductName())) {
+            System.err.println("WITHOUT ROWID tables are only supported on SQLite, creating ordinary tables");
+            return false;
+        }
+
+        Statement stmt = mConnection.createStatement();
+        ResultSet result = stmt.executeQuery("SELECT sqlite_version()");
+        result.next();
+
+        String version = result.getString(1);
+
+        result.close();
+        stmt.close();
+
+        String[] parts = version.split("\\.");
+        int[] numbers = new int[3];
+
+        for (int i = 0; i < numbers.length && i < parts.length; i++) {
+            try {
+                numbers[i] = Integer.parseInt(parts[i]);
+            } catch (NumberFormatException nfe) {
+                break;
+            }
+        }
+
+        boolean supported = numbers[0] > 3 || (numbers[0] == 3 && (numbers[1] > 8 || (numbers[1] == 8 && numbers[2] >= 2)));
+
+        if (!supported) {
+            System.err.println("SQLite " + version + " does not support WITHOUT ROWID tables, creating ordinary tables");
+        }
+
+        return supported;
+    }
+
+    /**
+     * Returns the primary key columns of table if it is created WITHOUT
+     * ROWID, otherwise null.
+     */
+    private String getPrimaryKey(String table) {
+        if (!mUseWithoutRowid) {
+            return null;
+        }
+
+        for (int i = 0; i < WITHOUT_ROWID_KEYS.length; i += 2) {
+            if (WITHOUT_ROWID_KEYS[i].equals(table)) {
+                return WITHOUT_ROWID_KEYS[i + 1];
+            }
+        }
+
+        return null;
     }
 
     private void createGtfsTables() throws SQLException {
@@ -97,7 +334,15 @@ public class GtfsParser {
                 stmt.close();
             }
 
-            String query = String.format("CREATE TABLE %s (%s)", tableName, TABLES[i + 1]);
+            String primaryKey = getPrimaryKey(tableName);
+            String query;
+
+            if (primaryKey != null) {
+                query = String.format("CREATE TABLE %s (%s, PRIMARY KEY (%s)%s) WITHOUT ROWID", tableName, TABLES[i + 1], primaryKey.replace(",", ", "), mReplaceDuplicates ? " ON CONFLICT REPLACE" : "");
+            }
+            else {
+                query = String.format("CREATE TABLE %s (%s)", tableName, TABLES[i + 1]);
+            }
             System.err.println(query);
 
             Statement stmt = mConnection.createStatement();
@@ -108,26 +353,119 @@ public class GtfsParser {
         mConnection.commit();
     }
 
-    private void createIndexes() throws SQLException {
-        for (int i = 0; i < TABLES.length; i += 3) {
-            if (TABLES[i + 2].length() == 0) {
+    /**
+     * Returns the table and index pairs of an index profile.
+     */
+    private static String[] getIndexes(String profile) {
+        if (profile.equals(DEFAULT_INDEX_PROFILE)) {
+            List<String> indexes = new ArrayList<String>();
+
+            for (int i = 0; i < TABLES.length; i += 3) {
+                indexes.add(TABLES[i]);
+                indexes.add(TABLES[i + 2]);
+            }
+
+            return indexes.toArray(new String[indexes.size()]);
+        }
+        else if (profile.equals("minimal")) {
+            return MINIMAL_INDEXES;
+        }
+        else if (profile.equals("routing")) {
+            return ROUTING_INDEXES;
+        }
+        else if (profile.equals("board")) {
+            return BOARD_INDEXES;
+        }
+        throw new IllegalArgumentException("No index profile named " + profile + ", expected default, minimal, routing or board");
+    }
+
+    /**
+     * Returns the CREATE INDEX statements of table in the index profile.
+     */
+    private List<String> getIndexQueries(String table) {
+        String[] indexes = getIndexes(mIndexProfile);
+        List<String> queries = new ArrayList<String>();
+
+        for (int i = 0; i < indexes.length; i += 2) {
+            if (!indexes[i].equals(table) || indexes[i + 1].length() == 0) {
                 continue;
             }
-            
-            String table = TABLES[i];
-            String[] fields = TABLES[i + 2].split(",");
+
+            String[] fields = indexes[i + 1].split(",");
+            String primaryKey = getPrimaryKey(table);
 
             for (int j = 0; j < fields.length; j++) {
-                String query = String.format("CREATE INDEX %s_%s ON %s (%s)", table, fields[j], table, fields[j]);
-                System.err.println(query);
+                String[] columns = fields[j].split("\\+");
+
+                // the primary key already orders the rows by its leading columns
+                if (primaryKey != null && (primaryKey + ",").startsWith(fields[j].replace('+', ',') + ",")) {
+                    continue;
+                }
+                queries.add(String.format("CREATE INDEX %s_%s ON %s (%s)", table, fields[j].replace('+', '_'), table, getList(columns)));
+            }
+        }
+
+        return queries;
+    }
+
+    /**
+     * Starts building the indexes of a table that has been committed, if
+     * indexes are built while loading and they have not been started yet.
+     */
+    private void scheduleIndexes(String table) {
+        if (mIndexScheduler == null) {
+            return;
+        }
+
+        synchronized (mIndexedTables) {
+            if (!mIndexedTables.add(table)) {
+                return;
+            }
+        }
+
+        mIndexScheduler.schedule(getIndexQueries(table));
+    }
+
+    /**
+     * Builds the indexes that have not been built while loading, which are
+     * all of them without index connections, and waits for the others.
+     */
+    private void createIndexes() throws SQLException {
+        if (mIndexScheduler != null) {
+            // tables that were not loaded are empty but are still indexed
+            for (int i = 0; i < TABLES.length; i += 3) {
+                scheduleIndexes(TABLES[i]);
+            }
+
+            try {
+                mIndexScheduler.finish();
+            } finally {
+                mIndexScheduler = null;
+            }
+            return;
+        }
+
+        IndexScheduler.setWorkMem(mConnection, mIndexMemory);
+
+        long start = System.nanoTime();
+        int count = 0;
+
+        for (int i = 0; i < TABLES.length; i += 3) {
+            for (String query : getIndexQueries(TABLES[i])) {
+                long indexStart = System.nanoTime();
 
                 Statement stmt = mConnection.createStatement();
                 stmt.execute(query);
                 stmt.close();
+
+                System.err.println(String.format("%s in %.2fs", query, (System.nanoTime() - indexStart) / 1e9));
+                count++;
             }
         }
 
         mConnection.commit();
+
+        System.err.println(String.format("Created %d %s indexes in %.2fs", count, mIndexProfile, (System.nanoTime() - start) / 1e9));
     }
     
 
@@ -160,11 +498,30 @@ public class GtfsParser {
 
         detector.reset();
 
+        if (MappedCsvReader.supports(charset)) {
+            return new MappedCsvReader(f, ',', charset);
+        }
+
         InputStream is = new BOMInputStream(new FileInputStream(f), false);
         return new CsvReader(is, ',', charset);
     }
 
+    private File getTableFile(String table) {
+        File f = getFile(table + ".txt");
+
+        if (!f.exists()) {
+            f = getFile(table + ".csv");
+        }
+
+        return f;
+    }
+
     private void parseFiles() throws Exception {
+        if (mLoadConnections.size() > 0) {
+            parseFilesConcurrently();
+            return;
+        }
+
         for (int i = 0; i < TABLES.length; i += 3) {
             String filename = TABLES[i] + ".txt";
 
@@ -172,20 +529,104 @@ public class GtfsParser {
                 continue;
             }
 
-            File f = getFile(filename);
-            
-            if (!f.exists()) {
-                f = getFile(TABLES[i] + ".csv");
-            }
-
             try {
-                parseFile(f, TABLES[i]);
+                parseFile(getTableFile(TABLES[i]), TABLES[i], mConnection);
+            } catch (SQLException se) {
+                // only the loads that must not be skipped get this far
+                throw se;
             } catch (Exception e) {
                 // System.err.println(e.toString());
             }
         }
     }
 
+    /**
+     * Loads the files on the main connection and the load connections at the
+     * same time, starting each file once the files it depends on have been
+     * loaded. Files that are waiting are started in the order of TABLES.
+     */
+    private void parseFilesConcurrently() throws Exception {
+        final BlockingQueue<Connection> connections = new ArrayBlockingQueue<Connection>(mLoadConnections.size() + 1);
+        connections.add(mConnection);
+        connections.addAll(mLoadConnections);
+
+        Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+
+        for (int i = 0; i < DEPENDENCIES.length; i += 2) {
+            dependencies.put(DEPENDENCIES[i], new HashSet<String>(Arrays.asList(DEPENDENCIES[i + 1].split(","))));
+        }
+
+        List<String> waiting = new ArrayList<String>();
+
+        for (int i = 0; i < TABLES.length; i += 3) {
+            if (!mExclude.contains(TABLES[i] + ".txt")) {
+                waiting.add(TABLES[i]);
+            }
+        }
+
+        Set<String> unfinished = new HashSet<String>(waiting);
+
+        ExecutorService pool = Executors.newFixedThreadPool(connections.size());
+        CompletionService<String> loads = new ExecutorCompletionService<String>(pool);
+
+        try {
+            int running = 0;
+
+            while (waiting.size() > 0 || running > 0) {
+                Iterator<String> it = waiting.iterator();
+
+                while (it.hasNext()) {
+                    final String table = it.next();
+                    Set<String> required = dependencies.get(table);
+
+                    if (required != null && !Collections.disjoint(required, unfinished)) {
+                        continue;
+                    }
+
+                    it.remove();
+                    running++;
+
+                    loads.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            // there are as many threads as connections
+                            Connection connection = connections.take();
+
+                            try {
+                                parseFile(getTableFile(table), table, connection);
+                            } catch (SQLException se) {
+                                // only the loads that must not be skipped get this far
+                                throw se;
+                            } catch (Exception e) {
+                                System.err.println("Exception loading " + table + ": " + e.getLocalizedMessage());
+                            } finally {
+                                connections.put(connection);
+                            }
+
+                            return table;
+                        }
+                    });
+                }
+
+                String table;
+
+                try {
+                    table = loads.take().get();
+                } catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof Exception) {
+                        throw (Exception) ee.getCause();
+                    }
+                    throw ee;
+                }
+
+                unfinished.remove(table);
+                running--;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     private String getList(String[] strs) {
         String ret = "";
 
@@ -200,17 +641,42 @@ public class GtfsParser {
         return ret;
     }
 
-    private String getPlaceholders(int len) {
-        String ret = "";
+    /**
+     * Returns the binary COPY type of each field, as declared in TABLES.
+     * Fields that are not declared there are sent as text.
+     */
+    private static int[] getColumnTypes(String table, String[] fields) {
+        Map<String, String> declared = new HashMap<String, String>();
 
-        for (int i = 0; i < len; i++) {
-            if (i > 0) {
-                ret += ", ";
+        for (int i = 0; i < TABLES.length; i += 3) {
+            if (TABLES[i].equals(table)) {
+                for (String column : TABLES[i + 1].split(",")) {
+                    String[] parts = column.trim().split("\\s+");
+
+                    if (parts.length >= 2) {
+                        declared.put(parts[0], parts[1].toUpperCase());
+                    }
+                }
             }
-            ret += "?";
         }
 
-        return ret;
+        int[] types = new int[fields.length];
+
+        for (int i = 0; i < fields.length; i++) {
+            String type = declared.get(fields[i]);
+
+            if ("INTEGER".equals(type)) {
+                types[i] = BinaryCopierRow.TYPE_INTEGER;
+            }
+            else if ("REAL".equals(type)) {
+                types[i] = BinaryCopierRow.TYPE_REAL;
+            }
+            else {
+                types[i] = BinaryCopierRow.TYPE_TEXT;
+            }
+        }
+
+        return types;
     }
 
     private RowProcessor getProcessor(String table) throws Exception {
@@ -265,142 +731,696 @@ public class GtfsParser {
         throw new Exception("No processor found for " + table);
     }
 
-    private void parseFile(File f, String table) throws Exception {
+    private void parseFile(File f, String table, Connection connection) throws Exception {
         if (!f.exists()) {
             return;
         }
-        
+
+        if ((mSortMemory > 0 && table.equals("stop_times")) || getPrimaryKey(table) != null) {
+            long memory = mSortMemory > 0 ? mSortMemory : DEFAULT_SORT_MEMORY;
+            SequenceSorter sorter = new SequenceSorter(this, table, memory, mSortDirectory);
+            File sorted = null;
+            CsvReader csv = null;
+
+            try {
+                csv = getCsv(f);
+                sorted = sorter.sort(csv);
+            } catch (IOException ioe) {
+                System.err.println("Unable to sort " + f.getAbsolutePath() + ", loading it unsorted: " + ioe.getLocalizedMessage());
+            } finally {
+                if (csv != null) {
+                    csv.close();
+                }
+            }
+
+            if (sorted == null) {
+                loadFile(f, table, connection, false);
+                return;
+            }
+
+            try {
+                loadFile(sorted, table, connection, true);
+            } finally {
+                sorted.delete();
+            }
+
+            if (getPrimaryKey(table) != null && mReplaceDuplicates) {
+                reportReplacedRows(table, sorter.getRecordCount(), connection);
+            }
+            return;
+        }
+
+        loadFile(f, table, connection, false);
+    }
+
+    /**
+     * Reports how many of the records read for table were replaced by later
+     * records with the same primary key, if it was loaded.
+     */
+    private void reportReplacedRows(String table, long records, Connection connection) throws SQLException {
+        if (!mContext.getLoadedTables().containsKey(table)) {
+            return;
+        }
+
+        Statement stmt = connection.createStatement();
+        ResultSet result = stmt.executeQuery("SELECT COUNT(*) FROM " + table);
+        result.next();
+
+        long replaced = records - result.getLong(1);
+
+        result.close();
+        stmt.close();
+
+        if (replaced > 0) {
+            System.err.println(String.format("%d of %d %s records had the same key as a later record and were replaced by it", replaced, records, table));
+        }
+    }
+
+    /**
+     * Loads f into table. If ordered is set the rows are loaded in file
+     * order, as the sorted files must be, even when they are copied.
+     */
+    private void loadFile(File f, String table, Connection connection, boolean ordered) throws Exception {
         System.err.println("Parsing " + f.getAbsolutePath());
 
         RowProcessor rp = getProcessor(table);
 
         CopyIn copier = null;
 
-        if (mConnection instanceof BaseConnection) {
-            CopyManager cm = new CopyManager((BaseConnection) mConnection);
-            copier = cm.copyIn("COPY " + rp.getTableName() + " (" + getList(rp.getFields()) + ") FROM STDIN WITH DELIMITER '" + COPY_SEPARATOR + "' NULL AS ''");
+        if (connection instanceof BaseConnection) {
+            CopyManager cm = new CopyManager((BaseConnection) connection);
+            String format = mBinaryCopy ? "BINARY" : "DELIMITER '" + COPY_SEPARATOR + "' NULL AS ''";
+            copier = cm.copyIn("COPY " + rp.getTableName() + " (" + getList(rp.getFields()) + ") FROM STDIN WITH " + format);
+
+            if (mBinaryCopy) {
+                BinaryCopierRow.writeHeader(copier);
+            }
         }
 
+        CsvReader csv = null;
+
         try {
-            CsvReader csv = getCsv(f);
+            csv = getCsv(f);
             csv.readHeaders();
 
-            PreparedStatement insert = null;
+            BatchInsert insert = null;
+            BatchSizer sizer = null;
             
             if (copier == null) {
-                insert = rp.getPreparedStatement(mConnection);
+                insert = rp.getInsert(connection);
+                sizer = new BatchSizer(table, INSERT_BATCH_SIZE, mMinBatch, mMaxBatch, mMinCommit, mMaxCommit);
             }
 
-            int row = 0;
-
-            while (csv.readRecord()) {
-                rp.process(csv, insert, copier);
-                
-                if (insert != null) {
-                    insert.addBatch();
+            if (f.length() >= PIPELINE_MIN_FILE_SIZE) {
+                if (copier != null) {
+                    pipeCopy(csv, table, copier, ordered);
+                }
+                else {
+                    pipeInsert(csv, rp, insert, sizer, connection);
                 }
+            }
+            else {
+                int row = 0;
+                int pending = 0;
 
-                if ((row % 10000) == 0) {
+                while (csv.readRecord()) {
+                    rp.process(csv, insert, copier);
+                    
                     if (insert != null) {
-                        insert.executeBatch();
+                        insert.addBatch();
+
+                        if (++pending >= sizer.getBatchSize()) {
+                            executeBatch(insert, pending, sizer, connection);
+                            pending = 0;
+                        }
+                    }
+
+                    if ((row % 10000) == 0) {
+                        System.err.println(String.format("%d", row));
                     }
-                    
-                    System.err.println(String.format("%d", row));
-                }
 
-                row++;
+                    row++;
+                }
             }
 
             if (insert != null) {
                 insert.executeBatch();
+                System.err.println(sizer);
             }
             else if (copier != null) {
+                rp.finish();
+
+                if (mBinaryCopy) {
+                    BinaryCopierRow.writeTrailer(copier);
+                }
                 copier.endCopy();
             }
 
-            mConnection.commit();
+            connection.commit();
+            mContext.addLoadedTable(rp.getTableName(), f.length());
+            scheduleIndexes(table);
             
             if (insert != null) {
                 insert.close();
             }
         } catch (SQLException se) {
             System.err.println("SQLException: " + se.getLocalizedMessage());
+            abortLoad(table, copier, connection);
+
+            // a table with a primary key that fails to load, such as on a
+            // duplicate key, fails the run rather than leave it partly loaded
+            if (getPrimaryKey(table) != null) {
+                throw se;
+            }
         } catch (IOException ioe) {
             System.err.println("IOException: " + ioe.getLocalizedMessage());
+            abortLoad(table, copier, connection);
         } catch (Exception e) {
             e.printStackTrace();
             System.err.println("Exception: " + e.getLocalizedMessage());
+            abortLoad(table, copier, connection);
+        } finally {
+            // a mapped reader holds its channel until it is closed
+            if (csv != null) {
+                csv.close();
+            }
         }
     }
-    private static Map<String, Integer> mMappedRouteIds   = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedServiceIds = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedTripIds    = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedStopIds    = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedZoneIds    = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedShapeIds   = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedBlockIds   = new HashMap<String, Integer>();
-    private static Map<String, Integer> mMappedFareIds    = new HashMap<String, Integer>();
 
-    public static int getMappedRouteId(String routeId) {
-        return getMappedId(mMappedRouteIds, routeId);
+    /**
+     * Discards the rows of a load that failed, so that they are not committed
+     * with the next table loaded on connection. A table with a primary key is
+     * also emptied of the batches that were committed before the failure.
+     */
+    private void abortLoad(String table, CopyIn copier, Connection connection) {
+        try {
+            if (copier != null && copier.isActive()) {
+                copier.cancelCopy();
+            }
+        } catch (SQLException se) {
+        }
+
+        try {
+            connection.rollback();
+
+            if (getPrimaryKey(table) != null) {
+                Statement stmt = connection.createStatement();
+                stmt.executeUpdate("DELETE FROM " + table);
+                stmt.close();
+                connection.commit();
+            }
+        } catch (SQLException se) {
+            System.err.println("Unable to discard the rows loaded into " + table + ": " + se.getLocalizedMessage());
+        }
     }
 
-    public static int getMappedServiceId(String serviceId) {
-        return getMappedId(mMappedServiceIds, serviceId);
+    /**
+     * Loads the rest of the file with COPY using three stages: a reader that
+     * divides a mapped file into chunks, mParserThreads encoders that parse
+     * the chunks into blocks of COPY data, and this thread, which writes the
+     * blocks to copier. Files that are not mapped, and ordered files whose
+     * rows must not be interleaved, are read by a single encoder.
+     */
+    private void pipeCopy(CsvReader csv, String table, CopyIn copier, boolean ordered) throws Exception {
+        boolean mapped = csv instanceof MappedCsvReader;
+        int encoders = mapped && !ordered ? mParserThreads : 1;
+
+        BlockingQueue<long[]> chunks = mapped ? new ArrayBlockingQueue<long[]>(encoders * 2) : null;
+        BlockingQueue<ByteBuffer> blocks = new ArrayBlockingQueue<ByteBuffer>(encoders * 2);
+
+        StageTimer reader = new StageTimer("read", "chunks");
+        StageTimer encoder = new StageTimer("encode", "rows");
+        StageTimer writer = new StageTimer("write", "blocks");
+
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        List<BufferedCopyIn> buffers = new ArrayList<BufferedCopyIn>();
+        Future<Integer> read = null;
+
+        ExecutorService pool = Executors.newFixedThreadPool(encoders + 1);
+
+        try {
+            if (mapped) {
+                read = pool.submit(new ChunkReader((MappedCsvReader) csv, chunks, encoders, reader));
+            }
+
+            for (int i = 0; i < encoders; i++) {
+                BufferedCopyIn buffer = new BufferedCopyIn(blocks, COPY_BLOCK_SIZE, copier.getFormat(), copier.getFieldCount());
+                buffers.add(buffer);
+                results.add(pool.submit(new CopyEncoder(csv, chunks, getProcessor(table), encoder, buffer)));
+            }
+
+            // every encoder ends with an END block, even when it fails
+            SQLException failure = null;
+            int finished = 0;
+
+            while (finished < encoders) {
+                long waiting = System.nanoTime();
+                ByteBuffer block = blocks.take();
+                long taken = System.nanoTime();
+                writer.waited(taken - waiting);
+
+                if (block == BufferedCopyIn.END) {
+                    finished++;
+                    continue;
+                }
+
+                if (failure == null) {
+                    try {
+                        copier.writeToCopy(block.array(), block.arrayOffset() + block.position(), block.remaining());
+                    } catch (SQLException se) {
+                        failure = se;
+
+                        for (BufferedCopyIn buffer : buffers) {
+                            buffer.cancelCopy();
+                        }
+                    }
+                }
+
+                writer.busy(System.nanoTime() - taken);
+                writer.count(1);
+            }
+
+            if (failure != null) {
+                copier.cancelCopy();
+                throw failure;
+            }
+
+            try {
+                for (Future<Integer> result : results) {
+                    getResult(result);
+                }
+
+                if (read != null) {
+                    getResult(read);
+                }
+            } catch (Exception e) {
+                copier.cancelCopy();
+                throw e;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.err.println(String.format("%d", encoder.getItems()));
+        System.err.println((mapped ? reader + "; " : "") + encoder + "; " + writer);
     }
 
-    public static int getMappedTripId(String tripId) {
-        return getMappedId(mMappedTripIds, tripId);
+    /**
+     * Loads the rest of the file with batched inserts using three stages: a
+     * reader that divides a mapped file into chunks, an encoder that binds
+     * the rows of each chunk to a batch and this thread, which executes the
+     * batches. Two inserts are used in turn so that one can be filled
+     * while the other is executed. Files that are not mapped are read by the
+     * encoder.
+     */
+    private void pipeInsert(CsvReader csv, RowProcessor rp, BatchInsert insert, BatchSizer sizer, Connection connection) throws Exception {
+        boolean mapped = csv instanceof MappedCsvReader;
+
+        // a single encoder keeps the rows in file order
+        BlockingQueue<long[]> chunks = mapped ? new ArrayBlockingQueue<long[]>(2) : null;
+        BlockingQueue<InsertBatch> batches = new ArrayBlockingQueue<InsertBatch>(2);
+        BlockingQueue<BatchInsert> inserts = new ArrayBlockingQueue<BatchInsert>(2);
+
+        StageTimer reader = new StageTimer("read", "chunks");
+        StageTimer encoder = new StageTimer("encode", "rows");
+        StageTimer writer = new StageTimer("write", "rows");
+
+        BatchInsert other = rp.getInsert(connection);
+        inserts.add(insert);
+        inserts.add(other);
+
+        Future<Integer> read = null;
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+
+        try {
+            if (mapped) {
+                read = pool.submit(new ChunkReader((MappedCsvReader) csv, chunks, 1, reader));
+            }
+
+            Future<Integer> encoded = pool.submit(new InsertEncoder(csv, chunks, rp, encoder, sizer, batches, inserts));
+
+            while (true) {
+                long waiting = System.nanoTime();
+                InsertBatch batch = batches.take();
+                long taken = System.nanoTime();
+                writer.waited(taken - waiting);
+
+                if (batch == InsertBatch.END) {
+                    break;
+                }
+
+                executeBatch(batch.mInsert, batch.mRows, sizer, connection);
+                inserts.put(batch.mInsert);
+
+                writer.busy(System.nanoTime() - taken);
+                writer.count(batch.mRows);
+
+                System.err.println(String.format("%d", writer.getItems()));
+            }
+
+            getResult(encoded);
+
+            if (read != null) {
+                getResult(read);
+            }
+        } finally {
+            pool.shutdownNow();
+            other.close();
+        }
+
+        System.err.println((mapped ? reader + "; " : "") + encoder + "; " + writer);
     }
 
-    public static int getMappedStopId(String stopId) {
-        return getMappedId(mMappedStopIds, stopId);
+    /**
+     * Executes the rows batched in insert, timing them for sizer, and
+     * commits if sizer asks for it.
+     */
+    private static void executeBatch(BatchInsert insert, int rows, BatchSizer sizer, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+        insert.executeBatch();
+
+        if (sizer.executed(rows, System.nanoTime() - start)) {
+            connection.commit();
+        }
     }
 
-    public static int getMappedZoneId(String zoneId) {
-        return getMappedId(mMappedZoneIds, zoneId);
+    private static int getResult(Future<Integer> result) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof Exception) {
+                throw (Exception) ee.getCause();
+            }
+            throw ee;
+        }
     }
 
-    public static int getMappedFareId(String fareId) {
-        return getMappedId(mMappedFareIds, fareId);
+    /**
+     * Divides a mapped file into chunks of about CHUNK_SIZE bytes that start
+     * at record boundaries and queues them, followed by one END_OF_CHUNKS for
+     * each encoder.
+     */
+    private class ChunkReader implements Callable<Integer> {
+        private MappedCsvReader mCsv;
+        private BlockingQueue<long[]> mChunks;
+        private int mEncoders;
+        private StageTimer mTimer;
+
+        public ChunkReader(MappedCsvReader csv, BlockingQueue<long[]> chunks, int encoders, StageTimer timer) {
+            mCsv = csv;
+            mChunks = chunks;
+            mEncoders = encoders;
+            mTimer = timer;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            int count = 0;
+
+            try {
+                long start = mCsv.getOffset();
+                long end = mCsv.getEndOffset();
+
+                while (start < end) {
+                    long started = System.nanoTime();
+                    long next = mCsv.nextBoundary(start, start + CHUNK_SIZE);
+                    long found = System.nanoTime();
+
+                    mChunks.put(new long[] { start, next });
+
+                    mTimer.busy(found - started);
+                    mTimer.waited(System.nanoTime() - found);
+                    mTimer.count(1);
+
+                    start = next;
+                    count++;
+                }
+            } finally {
+                for (int i = 0; i < mEncoders; i++) {
+                    mChunks.put(END_OF_CHUNKS);
+                }
+            }
+
+            return count;
+        }
     }
 
-    public static int getMappedShapeId(String shapeId) {
-        return getMappedId(mMappedShapeIds, shapeId);
+    /**
+     * Parses records, either from the chunks queued by a ChunkReader or,
+     * if there is no chunk queue, straight from the reader it was given.
+     */
+    private abstract class Encoder implements Callable<Integer> {
+        private CsvReader mCsv;
+        private BlockingQueue<long[]> mChunks;
+        private StageTimer mTimer;
+        private long mWaitTime = 0;
+
+        protected RowProcessor mProcessor;
+
+        public Encoder(CsvReader csv, BlockingQueue<long[]> chunks, RowProcessor processor, StageTimer timer) {
+            mCsv = csv;
+            mChunks = chunks;
+            mProcessor = processor;
+            mTimer = timer;
+        }
+
+        protected abstract void encode(CsvReader csv) throws Exception;
+
+        /**
+         * Called once when the encoder stops, completed is false if it
+         * failed.
+         */
+        protected abstract void end(boolean completed) throws Exception;
+
+        protected void waited(long nanos) {
+            mWaitTime += nanos;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            long started = System.nanoTime();
+            boolean completed = false;
+            int rows = 0;
+
+            try {
+                if (mChunks == null) {
+                    rows += encodeAll(mCsv);
+                }
+                else {
+                    while (true) {
+                        long waiting = System.nanoTime();
+                        long[] chunk = mChunks.take();
+                        waited(System.nanoTime() - waiting);
+
+                        if (chunk == END_OF_CHUNKS) {
+                            break;
+                        }
+
+                        CsvReader slice = ((MappedCsvReader) mCsv).slice(chunk[0], chunk[1]);
+
+                        try {
+                            rows += encodeAll(slice);
+                        } finally {
+                            slice.close();
+                        }
+                    }
+                }
+
+                completed = true;
+            } finally {
+                try {
+                    end(completed);
+                } finally {
+                    mTimer.waited(mWaitTime);
+                    mTimer.busy(System.nanoTime() - started - mWaitTime);
+                    mTimer.count(rows);
+                }
+            }
+
+            return rows;
+        }
+
+        private int encodeAll(CsvReader csv) throws Exception {
+            int rows = 0;
+
+            while (csv.readRecord()) {
+                encode(csv);
+                rows++;
+            }
+
+            return rows;
+        }
     }
 
-    public static int getMappedBlockId(String blockId) {
-        return getMappedId(mMappedBlockIds, blockId);
+    private class CopyEncoder extends Encoder {
+        private BufferedCopyIn mBuffer;
+
+        public CopyEncoder(CsvReader csv, BlockingQueue<long[]> chunks, RowProcessor processor, StageTimer timer, BufferedCopyIn buffer) {
+            super(csv, chunks, processor, timer);
+            mBuffer = buffer;
+        }
+
+        @Override
+        protected void encode(CsvReader csv) throws Exception {
+            mProcessor.process(csv, null, mBuffer);
+        }
+
+        @Override
+        protected void end(boolean completed) throws Exception {
+            try {
+                if (completed) {
+                    mProcessor.finish();
+                }
+            } finally {
+                mBuffer.endCopy();
+                waited(mBuffer.getWaitTime());
+            }
+        }
     }
 
-    private static int getMappedId(Map<String, Integer> map, String key) {
-        if (key == null || key.length() == 0) {
-            return 0;
+    private class InsertEncoder extends Encoder {
+        private BatchSizer mSizer;
+        private BlockingQueue<InsertBatch> mBatches;
+        private BlockingQueue<BatchInsert> mInserts;
+
+        private BatchInsert mInsert;
+        private int mRows = 0;
+
+        public InsertEncoder(CsvReader csv, BlockingQueue<long[]> chunks, RowProcessor processor, StageTimer timer, BatchSizer sizer, BlockingQueue<InsertBatch> batches, BlockingQueue<BatchInsert> inserts) {
+            super(csv, chunks, processor, timer);
+            mSizer = sizer;
+            mBatches = batches;
+            mInserts = inserts;
         }
-        
-        Integer ret = map.get(key);
 
-        if (ret == null) {
-            ret = Integer.valueOf(map.size() + 1);
-            map.put(key, ret);
+        @Override
+        protected void encode(CsvReader csv) throws Exception {
+            if (mInsert == null) {
+                long waiting = System.nanoTime();
+                mInsert = mInserts.take();
+                waited(System.nanoTime() - waiting);
+            }
+
+            mProcessor.process(csv, mInsert, null);
+            mInsert.addBatch();
+
+            if (++mRows >= mSizer.getBatchSize()) {
+                send(new InsertBatch(mInsert, mRows));
+
+                mInsert = null;
+                mRows = 0;
+            }
+        }
+
+        @Override
+        protected void end(boolean completed) throws Exception {
+            if (completed && mRows > 0) {
+                send(new InsertBatch(mInsert, mRows));
+            }
+
+            send(InsertBatch.END);
+        }
+
+        private void send(InsertBatch batch) throws InterruptedException {
+            long waiting = System.nanoTime();
+            mBatches.put(batch);
+            waited(System.nanoTime() - waiting);
+        }
+    }
+
+    private static class InsertBatch {
+        public static final InsertBatch END = new InsertBatch(null, 0);
+
+        public BatchInsert mInsert;
+        public int mRows;
+
+        public InsertBatch(BatchInsert insert, int rows) {
+            mInsert = insert;
+            mRows = rows;
+        }
+    }
+
+    public int getMappedRouteId(String routeId) {
+        return getMappedId(mContext.getRouteIds(), routeId);
+    }
+
+    public int getMappedServiceId(String serviceId) {
+        return getMappedId(mContext.getServiceIds(), serviceId);
+    }
+
+    public int getMappedTripId(String tripId) {
+        return getMappedId(mContext.getTripIds(), tripId);
+    }
+
+    public int getMappedStopId(CharSequence stopId) {
+        return getMappedId(mContext.getStopIds(), stopId);
+    }
+
+    public int getMappedZoneId(String zoneId) {
+        return getMappedId(mContext.getZoneIds(), zoneId);
+    }
+
+    public int getMappedFareId(String fareId) {
+        return getMappedId(mContext.getFareIds(), fareId);
+    }
+
+    public int getMappedShapeId(String shapeId) {
+        return getMappedId(mContext.getShapeIds(), shapeId);
+    }
+
+    public int getMappedBlockId(String blockId) {
+        return getMappedId(mContext.getBlockIds(), blockId);
+    }
+
+    // called from the threads that parse and load files concurrently
+    private static int getMappedId(ConcurrentIdDictionary ids, CharSequence key) {
+        if (key == null || key.length() == 0) {
+            return 0;
         }
 
-        return ret.intValue();
+        return ids.getOrAdd(key);
     }
 
     private abstract class RowProcessor {
         
-        public abstract void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException;
+        public abstract void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException;
         
         public abstract String getTableName();
         
         public abstract String[] getFields();
 
-        final public PreparedStatement getPreparedStatement(Connection connection) throws SQLException {
-            String[] fields = getFields();
-            
-            String query = String.format("INSERT INTO %s (%s) VALUES (%s)", getTableName(), getList(fields), getPlaceholders(fields.length));
-            return connection.prepareStatement(query);
+        final public BatchInsert getInsert(Connection connection) throws SQLException {
+            return new BatchInsert(connection, getTableName(), getFields());
+        }
+
+        private DataCopierRow mRow;
+
+        /**
+         * Returns the row used to encode records for copier, in binary format
+         * if that has been enabled. The same row is returned for every record.
+         */
+        protected DataCopierRow getCopierRow(CopyIn copier) {
+            if (mRow == null) {
+                if (mBinaryCopy) {
+                    mRow = new BinaryCopierRow(copier, getColumnTypes(getTableName(), getFields()));
+                }
+                else {
+                    mRow = new DataCopierRow(copier, COPY_SEPARATOR);
+                }
+            }
+
+            return mRow;
+        }
+
+        /**
+         * Writes any rows that are still buffered. Called before the COPY is
+         * ended.
+         */
+        public void finish() throws SQLException {
+            if (mRow != null) {
+                mRow.flush();
+            }
         }
     }
 
@@ -418,7 +1438,7 @@ public class GtfsParser {
         }
         
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             int i = 0;
 
             String agencyId = csv.get("agency_id");
@@ -433,7 +1453,7 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("agency_fare_url"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(agencyId);
                 row.add(csv.get("agency_name"));
                 row.add(csv.get("agency_timezone"));
@@ -441,7 +1461,7 @@ public class GtfsParser {
                 row.add(csv.get("agency_lang"));
                 row.add(csv.get("agency_phone"));
                 row.add(csv.get("agency_fare_url"));
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -459,7 +1479,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             int i = 0;
 
             String routeId = csv.get("route_id");
@@ -477,7 +1497,7 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("route_url"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedRouteId(routeId));
                 row.add(routeId);
                 row.add(csv.get("agency_id"));
@@ -489,7 +1509,7 @@ public class GtfsParser {
                 row.add(csv.get("route_text_color"));
                 row.add(csv.get("route_url"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
 
@@ -522,7 +1542,7 @@ public class GtfsParser {
         private int stopTimezoneIdx;
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (csv.getCurrentRecord() == 0) {
                 stopIdIdx = csv.getIndex("stop_id");
                 stopCodeIdx = csv.getIndex("stop_code");
@@ -590,7 +1610,7 @@ public class GtfsParser {
                 insert.setString(++i, stopTimezone);
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedStopId(stopId));
                 row.add(stopId);
                 row.add(csv.get(stopCodeIdx));
@@ -614,7 +1634,7 @@ public class GtfsParser {
                 row.add(stopUrl);
                 row.add(stopTimezone);
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
 
@@ -645,7 +1665,7 @@ public class GtfsParser {
         private int wheelchairIdx;
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
 
             if (csv.getCurrentRecord() == 0) {
                 tripIdIdx = csv.getIndex("trip_id");
@@ -705,7 +1725,7 @@ public class GtfsParser {
                 insert.setString(++i, serviceId);
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedTripId(tripId));
                 row.add(tripId);
                 row.add(getMappedRouteId(routeId));
@@ -728,7 +1748,7 @@ public class GtfsParser {
                 row.add(shapeId);
                 row.add(serviceId);
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
 
@@ -747,7 +1767,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             int i = 0;
 
             String serviceId = csv.get("service_id");
@@ -768,7 +1788,7 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("end_date"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedServiceId(serviceId));
                 row.add(serviceId);
     
@@ -783,7 +1803,7 @@ public class GtfsParser {
                 row.add(csv.get("start_date"));
                 row.add(csv.get("end_date"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
 
@@ -803,7 +1823,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             int i = 0;
 
             String serviceId = csv.get("service_id");
@@ -815,12 +1835,12 @@ public class GtfsParser {
                 insert.setInt(++i, Integer.valueOf(csv.get("exception_type")));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedServiceId(serviceId));
                 row.add(serviceId);
                 row.add(csv.get("date"));
                 row.add(Integer.valueOf(csv.get("exception_type")));                
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
 
@@ -849,18 +1869,78 @@ public class GtfsParser {
         private int pickupTypeIdx;
         private int dropOffTypeIdx;
 
-        private int getSeconds(String hms, long row) {
-            String parts[] = hms.split("\\:", 3);
-            
-            if (parts.length != 3) {
+        // stop_times is usually grouped by trip, so the previous row's trip is
+        // kept to avoid building a String and looking it up on every row
+        private String lastTripId;
+        private int lastTripIndex;
+
+        // the first and last stop of each trip, for the optimizer
+        private TripStats mStats = mContext.newTripStats();
+
+        private int getSeconds(CharSequence hms) {
+            int secs = 0;
+            int part = 0;
+            int parts = 1;
+            int digits = 0;
+
+            for (int i = 0; i < hms.length(); i++) {
+                char c = hms.charAt(i);
+
+                if (c == ':') {
+                    if (digits == 0 || ++parts > 3) {
+                        return -1;
+                    }
+
+                    secs = secs * 60 + part;
+                    part = 0;
+                    digits = 0;
+                }
+                else if (c >= '0' && c <= '9') {
+                    part = part * 10 + (c - '0');
+
+                    if (++digits > 6) {
+                        return -1;
+                    }
+                }
+                else {
+                    return -1;
+                }
+            }
+
+            if (parts != 3 || digits == 0) {
                 return -1;
             }
-            
-            return Integer.valueOf(parts[0]) * 3600 + Integer.valueOf(parts[1]) * 60 + Integer.valueOf(parts[2]);
+
+            return secs * 60 + part;
+        }
+
+        // trims value as String.trim does, without copying it unless it has
+        // to be trimmed, and returns null if nothing is left
+        private CharSequence trimToNull(CharSequence value) {
+            if (value == null) {
+                return null;
+            }
+
+            int start = 0;
+            int end = value.length();
+
+            while (start < end && value.charAt(start) <= ' ') {
+                start++;
+            }
+
+            while (end > start && value.charAt(end - 1) <= ' ') {
+                end--;
+            }
+
+            if (start == end) {
+                return null;
+            }
+
+            return start == 0 && end == value.length() ? value : value.subSequence(start, end);
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
 
             long rowNumber = csv.getCurrentRecord();
             
@@ -878,70 +1958,61 @@ public class GtfsParser {
 
             int i = 0;
 
-            String tripId = csv.get(tripIdIdx);
-            String stopId = csv.get(stopIdIdx);
-            String arrivalTime = csv.get(arrivalTimeIdx);
-            String departureTime = csv.get(departureTimeIdx);
-            
-            String shapeDistTraveled = csv.get(shapeDistTraveledIdx);
-            String stopHeadsign = csv.get(stopHeadsignIdx);
-            
-            if (stopHeadsign != null) {
-                stopHeadsign = stopHeadsign.trim();
-                
-                if (stopHeadsign.length() == 0) {
-                    stopHeadsign = null;
-                }
-            }
-            
-            int pickupType = -1;
-            int dropOffType = -1;
-            
-            try {
-                pickupType = Integer.valueOf(csv.get(pickupTypeIdx));
-            }
-            catch (Exception e) {
+            CharSequence tripId = csv.getCharSequence(tripIdIdx);
+
+            if (lastTripId == null || !lastTripId.contentEquals(tripId)) {
+                lastTripId = tripId.toString();
+                lastTripIndex = getMappedTripId(lastTripId);
             }
+
+            CharSequence stopId = csv.getCharSequence(stopIdIdx);
+            CharSequence arrivalTime = csv.getCharSequence(arrivalTimeIdx);
+            CharSequence departureTime = csv.getCharSequence(departureTimeIdx);
+
+            int arrivalSecs = getSeconds(arrivalTime);
+            int departureSecs = getSeconds(departureTime);
+            int stopSequence = csv.getInt(stopSequenceIdx);
+
+            boolean hasShapeDistTraveled = csv.getLength(shapeDistTraveledIdx) > 0;
+            double shapeDistTraveled = hasShapeDistTraveled ? csv.getDouble(shapeDistTraveledIdx) : 0;
+
+            CharSequence stopHeadsign = trimToNull(csv.getCharSequence(stopHeadsignIdx));
             
-            try {
-                dropOffType = Integer.valueOf(csv.get(dropOffTypeIdx));
-            }
-            catch (Exception e) {
-            }
+            int pickupType = csv.getInt(pickupTypeIdx, -1);
+            int dropOffType = csv.getInt(dropOffTypeIdx, -1);
+
+            mStats.addStop(lastTripIndex, stopSequence, arrivalTime, arrivalSecs, departureTime, departureSecs);
             
             if (copier == null) {
-                insert.setInt(++i, getMappedTripId(tripId));
-                insert.setString(++i, tripId);
+                insert.setInt(++i, lastTripIndex);
+                insert.setString(++i, lastTripId);
                 insert.setInt(++i, getMappedStopId(stopId));
-                insert.setString(++i, stopId);
+                insert.setString(++i, stopId.toString());
     
-                insert.setString(++i, arrivalTime);
+                insert.setString(++i, arrivalTime.toString());
                 
-                int secs = getSeconds(arrivalTime, rowNumber);
-                
-                if (secs < 0) {
+                if (arrivalSecs < 0) {
                     insert.setNull(++i, java.sql.Types.INTEGER);
                 }
                 else {                
-                    insert.setInt(++i, secs);
+                    insert.setInt(++i, arrivalSecs);
                 }
     
-                insert.setString(++i, departureTime);
+                insert.setString(++i, departureTime.toString());
                 
-                secs = getSeconds(departureTime, rowNumber);
-                if (secs < 0) {
+                if (departureSecs < 0) {
                     insert.setNull(++i, java.sql.Types.INTEGER);
                 }
                 else {                
-                    insert.setInt(++i, secs);
+                    insert.setInt(++i, departureSecs);
                 }
     
-                insert.setInt(++i, Integer.valueOf(csv.get(stopSequenceIdx)));
+                insert.setInt(++i, stopSequence);
     
                 insert.setInt(++i, 0);
                 
-                if (shapeDistTraveled != null && shapeDistTraveled.length() > 0) {
-                    insert.setDouble(++i, Double.valueOf(shapeDistTraveled));
+                if (hasShapeDistTraveled) {
+                    insert.setDouble(++i, shapeDistTraveled);
                 }
                 else {
                     insert.setNull(++i, java.sql.Types.DOUBLE);
@@ -951,7 +2022,7 @@ public class GtfsParser {
                     insert.setNull(++i, java.sql.Types.VARCHAR);
                 }
                 else {
-                    insert.setString(++i, stopHeadsign);
+                    insert.setString(++i, stopHeadsign.toString());
                 }
                 
                 if (pickupType < 0) {
@@ -969,20 +2040,20 @@ public class GtfsParser {
                 }
             }
             else {
-                DataCopierRow row = new DataCopierRow();
-                row.add(getMappedTripId(tripId));
-                row.add(tripId);
+                DataCopierRow row = getCopierRow(copier);
+                row.add(lastTripIndex);
+                row.add(lastTripId);
                 row.add(getMappedStopId(stopId));
                 row.add(stopId);
                 row.add(arrivalTime);
-                row.add(getSeconds(arrivalTime, rowNumber));
+                row.add(arrivalSecs);
                 row.add(departureTime);
-                row.add(getSeconds(departureTime, rowNumber));
-                row.add(Integer.valueOf(csv.get(stopSequenceIdx)));
+                row.add(departureSecs);
+                row.add(stopSequence);
                 row.add(0);
                 
-                if (shapeDistTraveled != null && shapeDistTraveled.length() > 0) {
-                    row.add(Double.valueOf(shapeDistTraveled));
+                if (hasShapeDistTraveled) {
+                    row.add(shapeDistTraveled);
                 }
                 else {
                     row.addNull();
@@ -1010,7 +2081,7 @@ public class GtfsParser {
                 }
                 
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -1033,8 +2104,11 @@ public class GtfsParser {
         private int sequenceIdx;
         private int shapeDistTraveledIdx;
 
+        private String lastShapeId;
+        private int lastShapeIndex;
+
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
 
             if (csv.getCurrentRecord() == 0) {
                 shapeIdIdx = csv.getIndex("shape_id");
@@ -1046,43 +2120,54 @@ public class GtfsParser {
 
             int i = 0;
 
-            String shapeId = csv.get(shapeIdIdx);
-            String shapeDistTraveled = csv.get(shapeDistTraveledIdx);
+            CharSequence shapeId = csv.getCharSequence(shapeIdIdx);
+
+            if (lastShapeId == null || !lastShapeId.contentEquals(shapeId)) {
+                lastShapeId = shapeId.toString();
+                lastShapeIndex = getMappedShapeId(lastShapeId);
+            }
+
+            double lat = csv.getDouble(latIdx);
+            double lon = csv.getDouble(lonIdx);
+            int sequence = csv.getInt(sequenceIdx);
+
+            boolean hasShapeDistTraveled = csv.getLength(shapeDistTraveledIdx) > 0;
+            double shapeDistTraveled = hasShapeDistTraveled ? csv.getDouble(shapeDistTraveledIdx) : 0;
             
             if (copier == null) {
-                insert.setInt(++i, getMappedShapeId(shapeId));
-                insert.setString(++i, shapeId);
+                insert.setInt(++i, lastShapeIndex);
+                insert.setString(++i, lastShapeId);
     
-                insert.setDouble(++i, Double.valueOf(csv.get(latIdx)));
-                insert.setDouble(++i, Double.valueOf(csv.get(lonIdx)));
+                insert.setDouble(++i, lat);
+                insert.setDouble(++i, lon);
     
-                insert.setInt(++i, Integer.valueOf(csv.get(sequenceIdx)));
+                insert.setInt(++i, sequence);
                 
-                if (shapeDistTraveled != null && shapeDistTraveled.length() > 0) {
-                    insert.setDouble(++i, Double.valueOf(shapeDistTraveled));
+                if (hasShapeDistTraveled) {
+                    insert.setDouble(++i, shapeDistTraveled);
                 }
                 else {
                     insert.setNull(++i, java.sql.Types.DOUBLE);
                 }
             }
             else {
-                DataCopierRow row = new DataCopierRow();
-                row.add(getMappedShapeId(shapeId));
-                row.add(shapeId);
+                DataCopierRow row = getCopierRow(copier);
+                row.add(lastShapeIndex);
+                row.add(lastShapeId);
     
-                row.add(Double.valueOf(csv.get(latIdx)));
-                row.add(Double.valueOf(csv.get(lonIdx)));
+                row.add(lat);
+                row.add(lon);
     
-                row.add(Integer.valueOf(csv.get(sequenceIdx)));
+                row.add(sequence);
                 
-                if (shapeDistTraveled != null && shapeDistTraveled.length() > 0) {
-                    row.add(Double.valueOf(shapeDistTraveled));
+                if (hasShapeDistTraveled) {
+                    row.add(shapeDistTraveled);
                 }
                 else {
                     row.addNull();
                 }
 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -1101,7 +2186,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             int i = 0;
             
             String fareId = csv.get("fare_id");
@@ -1116,7 +2201,7 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("transfer_duration"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedFareId(fareId));
                 row.add(fareId);
                 row.add(csv.get("price"));
@@ -1125,7 +2210,7 @@ public class GtfsParser {
                 row.add(csv.get("transfers"));
                 row.add(csv.get("transfer_duration"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }            
         }
     }
@@ -1143,7 +2228,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             
             if (copier == null) {
                 int i = 0;
@@ -1154,14 +2239,14 @@ public class GtfsParser {
                 insert.setInt(++i, getMappedZoneId(csv.get("contains_id")));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedFareId(csv.get("fare_id")));
                 row.add(getMappedRouteId(csv.get("route_id")));
                 row.add(getMappedZoneId(csv.get("origin_id")));
                 row.add(getMappedZoneId(csv.get("destination_id")));
                 row.add(getMappedZoneId(csv.get("contains_id")));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -1179,7 +2264,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (copier == null) {
                 int i = 0;
                 insert.setInt(++i, getMappedTripId(csv.get("trip_id")));
@@ -1189,14 +2274,14 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("exact_times"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedTripId(csv.get("trip_id")));
                 row.add(csv.get("start_time"));
                 row.add(csv.get("end_time"));
                 row.add(csv.get("headway_secs"));
                 row.add(csv.get("exact_times"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
             
         }
@@ -1217,7 +2302,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (copier == null) {
                 int i = 0;
                 insert.setInt(++i, getMappedStopId(csv.get("from_stop_id")));
@@ -1226,13 +2311,13 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("min_transfer_time"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(getMappedStopId(csv.get("from_stop_id")));
                 row.add(getMappedStopId(csv.get("to_stop_id")));
                 row.add(csv.get("transfer_type"));
                 row.add(csv.get("min_transfer_time"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -1252,7 +2337,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (copier == null) {
                 int i = 0;
                 insert.setString(++i, csv.get("feed_publisher_name"));
@@ -1263,7 +2348,7 @@ public class GtfsParser {
                 insert.setString(++i, csv.get("feed_version"));
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(csv.get("feed_publisher_name"));
                 row.add(csv.get("feed_publisher_url"));
                 row.add(csv.get("feed_lang"));
@@ -1271,7 +2356,7 @@ public class GtfsParser {
                 row.add(csv.get("feed_end_date"));
                 row.add(csv.get("feed_version"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -1291,7 +2376,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (copier == null) {
                 int i = 0;
                 insert.setString(++i, csv.get("MonitoringRef_ZDE"));
@@ -1317,7 +2402,7 @@ public class GtfsParser {
 
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(csv.get("MonitoringRef_ZDE"));
                 row.add(csv.get("reflex_lda_id"));
                 row.add(csv.get("reflex_lda_nom"));
@@ -1339,7 +2424,7 @@ public class GtfsParser {
                 row.add(csv.get("reflex_zde_y"));
                 row.add(csv.get("xy"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }  
@@ -1359,7 +2444,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (copier == null) {
                 int i = 0;
                 insert.setString(++i, csv.get("agency_name"));
@@ -1370,14 +2455,14 @@ public class GtfsParser {
 
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(csv.get("agency_name"));
                 row.add(csv.get("route_id"));
                 row.add(csv.get("stop_id"));
                 row.add(csv.get("ZDEr_ID_REF_A"));
                 row.add(csv.get("ID_LINE"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     }
@@ -1397,7 +2482,7 @@ public class GtfsParser {
         }
 
         @Override
-        public void process(CsvReader csv, PreparedStatement insert, CopyIn copier) throws SQLException, IOException {
+        public void process(CsvReader csv, BatchInsert insert, CopyIn copier) throws SQLException, IOException {
             if (copier == null) {
                 int i = 0;
                 insert.setString(++i, csv.get("ID_Line"));
@@ -1415,7 +2500,7 @@ public class GtfsParser {
                 
             }
             else {
-                DataCopierRow row = new DataCopierRow();
+                DataCopierRow row = getCopierRow(copier);
                 row.add(csv.get("ID_Line"));
                 row.add(csv.get("ExternalCode_Line"));
                 row.add(csv.get("Name_Line"));
@@ -1429,7 +2514,7 @@ public class GtfsParser {
                 row.add(csv.get("ID_GroupOfLine"));
                 row.add(csv.get("ShortName_GroupOfLine"));
                 
-                row.write(copier, COPY_SEPARATOR);
+                row.endRow();
             }
         }
     } 
@@ -1437,4 +2522,112 @@ public class GtfsParser {
     public void exclude(String filename) {
         mExclude.add(filename);
     }
+
+    /**
+     * Sets the number of threads used to parse large files. Only files loaded
+     * through COPY are parsed in parallel.
+     */
+    public void setParserThreads(int threads) {
+        mParserThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the bounds within which the number of rows inserted per batch is
+     * adjusted.
+     */
+    public void setBatchBounds(int min, int max) {
+        mMinBatch = min;
+        mMaxBatch = max;
+    }
+
+    /**
+     * Sets the bounds within which the number of rows inserted per
+     * transaction is adjusted.
+     */
+    public void setCommitBounds(int min, int max) {
+        mMinCommit = min;
+        mMaxCommit = max;
+    }
+
+    public void setBinaryCopy(boolean binary) {
+        mBinaryCopy = binary;
+    }
+
+    /**
+     * Sets the indexes created once the files are loaded: default for the
+     * single column indexes of each table, minimal for those the optimizer
+     * needs, routing for following trips and the trips through a stop, or
+     * board for the departures from a stop.
+     */
+    public void setIndexProfile(String profile) {
+        getIndexes(profile);
+        mIndexProfile = profile;
+    }
+
+    /**
+     * Adds a connection to the same database on which indexes are built while
+     * the files are loaded, starting with the indexes of each table as soon
+     * as it is committed. Only for PostgreSQL.
+     */
+    public void addIndexConnection(Connection connection) {
+        mIndexConnections.add(connection);
+    }
+
+    /**
+     * Sets the maintenance_work_mem of each index build on PostgreSQL, such
+     * as 256MB.
+     */
+    public void setIndexMemory(String memory) {
+        mIndexMemory = memory;
+    }
+
+    /**
+     * Sets stop_times to be sorted by trip_index and stop_sequence before it
+     * is loaded, holding at most memory bytes of records in memory and
+     * spilling the rest to temporary files in directory, or in the default
+     * temporary directory if it is null. The sorted file is parsed by a
+     * single thread, whatever setParserThreads was given, to keep its order.
+     */
+    public void setSortStopTimes(long memory, File directory) {
+        mSortMemory = memory;
+        mSortDirectory = directory;
+    }
+
+    /**
+     * Sets stop_times and shapes to be created WITHOUT ROWID when the
+     * database is SQLite 3.8.2 or later, with primary keys of trip_index and
+     * stop_sequence, and of shape_index and shape_pt_sequence. Their files
+     * are then sorted into key order before they are loaded.
+     */
+    public void setWithoutRowid(boolean withoutRowid) {
+        mWithoutRowid = withoutRowid;
+    }
+
+    /**
+     * Sets rows of the tables created WITHOUT ROWID to replace earlier rows
+     * with the same primary key, instead of failing the load of the table.
+     * The number of rows replaced is reported once each table is loaded.
+     */
+    public void setReplaceDuplicates(boolean replace) {
+        mReplaceDuplicates = replace;
+    }
+
+    /**
+     * Keeps the ids that index columns such as stop_index and trip_index are
+     * numbered with in files in directory. Ids that were assigned in an
+     * earlier run keep their index, and new ids are numbered after them.
+     */
+    public void setIdDirectory(File directory) {
+        mIdDirectory = directory;
+    }
+
+    /**
+     * Adds a connection to the same database on which files are loaded
+     * while others are loaded on the main connection. Tables are still
+     * created and indexed on the main connection.
+     */
+    public void addLoadConnection(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        mLoadConnections.add(connection);
+    }
 }
@@ -3,6 +3,9 @@ package com.transitfeeds.gtfs;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -20,6 +23,22 @@ public class GtfsToSql {
 		options.addOption("s", true, "JDBC Connection");
         options.addOption("e", true, "File(s) to exclude");
         options.addOption("o", false, "Run optimizer");
+        options.addOption("p", true, "Number of threads used to parse large files (PostgreSQL only)");
+        options.addOption("b", false, "Use binary COPY format (PostgreSQL only)");
+        options.addOption("c", true, "Number of connections used to load files and optimize trips concurrently (PostgreSQL only)");
+        options.addOption("batch", true, "Bounds for the adaptive number of rows per batch, as min:max");
+        options.addOption("commit", true, "Bounds for the adaptive number of rows per transaction, as min:max");
+        options.addOption("bulk", true, "Build the database in 'memory' or a temporary 'file' with bulk load settings, then move it to the target path (SQLite only)");
+        options.addOption("patterns", false, "Group trips with the same stops and relative times into the patterns and pattern_stops tables when optimizing");
+        options.addOption("departures", false, "Copy the departures from each stop, ordered by time, into the stop_departures table when optimizing");
+        options.addOption("freeze", false, "VACUUM (FREEZE) the biggest tables once they are optimized (PostgreSQL only)");
+        options.addOption("indexes", true, "Index profile: default, minimal, routing or board");
+        options.addOption("ix", true, "Number of connections used to build indexes while files are loading (PostgreSQL only)");
+        options.addOption("indexmem", true, "maintenance_work_mem of each index build, such as 256MB (PostgreSQL only)");
+        options.addOption("sort", true, "Sort stop_times by trip and stop_sequence before loading it, holding this many MB in memory and spilling the rest to temporary files");
+        options.addOption("norowid", false, "Create stop_times and shapes WITHOUT ROWID, clustered by trip and shape (SQLite 3.8.2 or later)");
+        options.addOption("replace", false, "With -norowid, let stop_times and shapes rows replace earlier rows with the same key instead of failing the load");
+        options.addOption("ids", true, "Directory in which ids are kept between runs, so that the index columns of existing ids do not change");
 		options.addOption("dbusername", true, "Database username");
 		options.addOption("dbpassword", true, "Database password");
 
@@ -50,7 +69,22 @@ public class GtfsToSql {
 			Class.forName("org.sqlite.JDBC");
 		}
 		
-		Connection connection = DriverManager.getConnection(connStr, line.getOptionValue("dbusername"), line.getOptionValue("dbpassword"));
+		SqliteBulkBuilder builder = null;
+		Connection connection;
+
+		if (line.hasOption("bulk")) {
+			if (!connStr.startsWith("jdbc:sqlite:")) {
+				System.err.println("Bulk build is only supported for SQLite");
+				System.exit(3);
+			}
+
+			builder = new SqliteBulkBuilder(new File(connStr.substring("jdbc:sqlite:".length())), line.getOptionValue("bulk"));
+			builder.setVacuum(line.hasOption("o"));
+			connection = builder.open();
+		}
+		else {
+			connection = DriverManager.getConnection(connStr, line.getOptionValue("dbusername"), line.getOptionValue("dbpassword"));
+		}
 
 		GtfsParser gtfs = new GtfsParser(gtfsFile, connection);
 		
@@ -62,11 +96,140 @@ public class GtfsToSql {
 			}
 		}
 		
-		gtfs.parse();
-		if (line.hasOption("o")) {
-		    GtfsOptimizer optimizer = new GtfsOptimizer(connection);
-		    optimizer.optimize();
-        }
+		if (line.hasOption("p")) {
+			gtfs.setParserThreads(Integer.parseInt(line.getOptionValue("p")));
+		}
+
+		if (line.hasOption("b")) {
+			gtfs.setBinaryCopy(true);
+		}
+
+		if (line.hasOption("indexes")) {
+			gtfs.setIndexProfile(line.getOptionValue("indexes"));
+		}
+
+		if (line.hasOption("indexmem")) {
+			gtfs.setIndexMemory(line.getOptionValue("indexmem"));
+		}
+
+		if (line.hasOption("sort")) {
+			gtfs.setSortStopTimes(Long.parseLong(line.getOptionValue("sort")) * 1024 * 1024, null);
+		}
+
+		if (line.hasOption("norowid")) {
+			gtfs.setWithoutRowid(true);
+			gtfs.setReplaceDuplicates(line.hasOption("replace"));
+		}
+
+		if (line.hasOption("ids")) {
+			gtfs.setIdDirectory(new File(line.getOptionValue("ids")));
+		}
+
+		int[] batchBounds = null;
+
+		if (line.hasOption("batch")) {
+			batchBounds = getBounds(line.getOptionValue("batch"));
+			gtfs.setBatchBounds(batchBounds[0], batchBounds[1]);
+		}
+
+		if (line.hasOption("commit")) {
+			int[] commitBounds = getBounds(line.getOptionValue("commit"));
+			gtfs.setCommitBounds(commitBounds[0], commitBounds[1]);
+		}
+
+		List<Connection> loadConnections = new ArrayList<Connection>();
+
+		if (line.hasOption("c")) {
+			if (connStr.startsWith("jdbc:postgresql:")) {
+				int count = Integer.parseInt(line.getOptionValue("c"));
+
+				for (int i = 1; i < count; i++) {
+					Connection loadConnection = DriverManager.getConnection(connStr, line.getOptionValue("dbusername"), line.getOptionValue("dbpassword"));
+					gtfs.addLoadConnection(loadConnection);
+					loadConnections.add(loadConnection);
+				}
+			}
+			else {
+				System.err.println("Concurrent loading is only supported on PostgreSQL, loading on one connection");
+			}
+		}
+
+		List<Connection> indexConnections = new ArrayList<Connection>();
+
+		if (line.hasOption("ix")) {
+			if (connStr.startsWith("jdbc:postgresql:")) {
+				int count = Integer.parseInt(line.getOptionValue("ix"));
+
+				for (int i = 0; i < count; i++) {
+					Connection indexConnection = DriverManager.getConnection(connStr, line.getOptionValue("dbusername"), line.getOptionValue("dbpassword"));
+					gtfs.addIndexConnection(indexConnection);
+					indexConnections.add(indexConnection);
+				}
+			}
+			else {
+				System.err.println("Building indexes while loading is only supported on PostgreSQL, building them after loading");
+			}
+		}
+		
+		try {
+			gtfs.parse();
+
+			for (Connection indexConnection : indexConnections) {
+				indexConnection.close();
+			}
+
+			if (line.hasOption("o")) {
+			    GtfsOptimizer optimizer = new GtfsOptimizer(connection);
+			    optimizer.setContext(gtfs.getContext());
+			    optimizer.setFreeze(line.hasOption("freeze"));
+			    optimizer.setPatterns(line.hasOption("patterns"));
+			    optimizer.setDepartures(line.hasOption("departures"));
+
+			    // builder.finish() vacuums the bulk-built database once it is optimized
+			    optimizer.setVacuum(builder == null);
+
+			    if (batchBounds != null) {
+			        optimizer.setBatchBounds(batchBounds[0], batchBounds[1]);
+			    }
+
+			    // the load connections also optimize ranges of trips
+			    for (Connection loadConnection : loadConnections) {
+			        optimizer.addConnection(loadConnection);
+			    }
+
+			    optimizer.optimize();
+			}
+
+			for (Connection loadConnection : loadConnections) {
+				loadConnection.close();
+			}
+
+			if (builder != null) {
+				builder.finish();
+			}
+		} catch (Exception e) {
+			for (Connection indexConnection : indexConnections) {
+				try {
+					indexConnection.close();
+				} catch (SQLException se) {
+				}
+			}
+
+			if (builder != null) {
+				builder.abort();
+			}
+			throw e;
+		}
+	}
+
+	private static int[] getBounds(String value) {
+		String[] parts = value.split(":");
+
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Bounds must be given as min:max, not " + value);
+		}
+
+		return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
 	}
 
 	public static void showHelp(Options options) {
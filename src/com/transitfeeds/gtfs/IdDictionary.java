@@ -0,0 +1,290 @@
+package com.transitfeeds.gtfs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Assigns dense int ids, starting at 1, to string keys. It takes the place of
+ * a HashMap<String, Integer> without keeping a String, a boxed Integer and a
+ * map entry per key: the keys are encoded into one byte array, and the table
+ * is an open addressing hash table of ids, probed linearly.
+ *
+ * Keys are encoded as UTF-8, except that each half of a surrogate pair is
+ * encoded on its own as DataOutput.writeUTF does. Every char then has exactly
+ * one encoding, so a key is compared against the array as it is encoded and a
+ * lookup does not allocate.
+ *
+ * This class is not thread-safe.
+ */
+public class IdDictionary {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // about the largest array the VM will allocate
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+
+    private byte[] mArena;
+    private int mArenaLength = 0;
+
+    // the key of id is at mOffsets[id - 1] to mOffsets[id] in mArena
+    private int[] mOffsets;
+    private int[] mHashes;
+    private int mSize = 0;
+
+    // ids, 0 where a slot is empty; at most half full
+    private int[] mSlots;
+
+    public IdDictionary() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public IdDictionary(int expectedKeys) {
+        int slots = Integer.highestOneBit(Math.max(expectedKeys, 8) * 2 - 1) * 2;
+
+        mSlots = new int[slots];
+        mOffsets = new int[slots / 2 + 1];
+        mHashes = new int[slots / 2 + 1];
+        mArena = new byte[Math.max(expectedKeys, 8) * 8];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the id of key, or 0 if it has not been added.
+     */
+    public int get(CharSequence key) {
+        return get(key, hash(key));
+    }
+
+    int get(CharSequence key, int hash) {
+        return mSlots[find(key, hash)];
+    }
+
+    /**
+     * Returns the id of key, adding it with the next id if it is new.
+     */
+    public int getOrAdd(CharSequence key) {
+        return getOrAdd(key, hash(key));
+    }
+
+    int getOrAdd(CharSequence key, int hash) {
+        int slot = find(key, hash);
+        int id = mSlots[slot];
+
+        if (id != 0) {
+            return id;
+        }
+
+        id = mSize + 1;
+
+        if (id == mOffsets.length) {
+            mOffsets = grow(mOffsets, id * 2);
+            mHashes = grow(mHashes, id * 2);
+        }
+
+        encode(key);
+
+        mOffsets[id] = mArenaLength;
+        mHashes[id] = hash;
+        mSlots[slot] = id;
+        mSize = id;
+
+        if (mSize * 2 > mSlots.length) {
+            rehash(mSlots.length * 2);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the key that was given id.
+     */
+    public String getKey(int id) {
+        if (id < 1 || id > mSize) {
+            throw new IndexOutOfBoundsException("No key with id " + id);
+        }
+
+        int end = mOffsets[id];
+        char[] chars = new char[end - mOffsets[id - 1]];
+        int length = 0;
+
+        for (int pos = mOffsets[id - 1]; pos < end; length++) {
+            int b = mArena[pos++];
+
+            if (b >= 0) {
+                chars[length] = (char) b;
+            }
+            else if ((b & 0xE0) == 0xC0) {
+                chars[length] = (char) (((b & 0x1F) << 6) | (mArena[pos++] & 0x3F));
+            }
+            else {
+                chars[length] = (char) (((b & 0x0F) << 12) | ((mArena[pos++] & 0x3F) << 6) | (mArena[pos++] & 0x3F));
+            }
+        }
+
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Writes the keys and the table in the format read by MappedIdDictionary:
+     * a header of MAGIC, VERSION, the number of keys, the number of slots and
+     * the number of key bytes, then the slots, the key offsets, the hashes and
+     * the key bytes. Ints are big-endian.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MappedIdDictionary.MAGIC);
+        out.writeInt(MappedIdDictionary.VERSION);
+        out.writeInt(mSize);
+        out.writeInt(mSlots.length);
+        out.writeInt(mArenaLength);
+
+        for (int i = 0; i < mSlots.length; i++) {
+            out.writeInt(mSlots[i]);
+        }
+
+        for (int i = 0; i <= mSize; i++) {
+            out.writeInt(mOffsets[i]);
+        }
+
+        for (int i = 0; i <= mSize; i++) {
+            out.writeInt(mHashes[i]);
+        }
+
+        out.write(mArena, 0, mArenaLength);
+    }
+
+    // MappedIdDictionary finds the keys in a written table with this hash,
+    // so changing it needs a new MappedIdDictionary.VERSION
+    static int hash(CharSequence key) {
+        int h = 0;
+
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + key.charAt(i);
+        }
+
+        // spread the bits, since the slot is taken from the low bits only
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+
+        return h;
+    }
+
+    /**
+     * Returns the slot that holds key, or the empty slot where it belongs.
+     */
+    private int find(CharSequence key, int hash) {
+        int mask = mSlots.length - 1;
+        int slot = hash & mask;
+
+        while (true) {
+            int id = mSlots[slot];
+
+            if (id == 0 || (mHashes[id] == hash && matches(id, key))) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int id, CharSequence key) {
+        byte[] arena = mArena;
+        int pos = mOffsets[id - 1];
+        int end = mOffsets[id];
+        int length = key.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+
+            if (c < 0x80) {
+                if (pos >= end || arena[pos++] != (byte) c) {
+                    return false;
+                }
+            }
+            else if (c < 0x800) {
+                if (pos + 2 > end
+                        || arena[pos++] != (byte) (0xC0 | (c >> 6))
+                        || arena[pos++] != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+            else {
+                if (pos + 3 > end
+                        || arena[pos++] != (byte) (0xE0 | (c >> 12))
+                        || arena[pos++] != (byte) (0x80 | ((c >> 6) & 0x3F))
+                        || arena[pos++] != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+        }
+
+        return pos == end;
+    }
+
+    private void encode(CharSequence key) {
+        int length = key.length();
+
+        if ((long) mArenaLength + length * 3L > mArena.length) {
+            if ((long) mArenaLength + length * 3L > MAX_ARENA) {
+                throw new IllegalStateException("Too much key data in dictionary of " + mSize + " keys");
+            }
+
+            mArena = grow(mArena, (int) Math.min(MAX_ARENA, Math.max(mArena.length * 2L, mArenaLength + length * 3L)));
+        }
+
+        byte[] arena = mArena;
+        int pos = mArenaLength;
+
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+
+            if (c < 0x80) {
+                arena[pos++] = (byte) c;
+            }
+            else if (c < 0x800) {
+                arena[pos++] = (byte) (0xC0 | (c >> 6));
+                arena[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+            else {
+                arena[pos++] = (byte) (0xE0 | (c >> 12));
+                arena[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                arena[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        mArenaLength = pos;
+    }
+
+    private void rehash(int capacity) {
+        int[] slots = new int[capacity];
+        int mask = capacity - 1;
+
+        for (int id = 1; id <= mSize; id++) {
+            int slot = mHashes[id] & mask;
+
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            slots[slot] = id;
+        }
+
+        mSlots = slots;
+    }
+
+    private static int[] grow(int[] array, int length) {
+        int[] ret = new int[length];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+
+    private static byte[] grow(byte[] array, int length) {
+        byte[] ret = new byte[length];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+}
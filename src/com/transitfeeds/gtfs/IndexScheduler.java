@@ -0,0 +1,166 @@
+package com.transitfeeds.gtfs;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds indexes on connections of their own while files are still being
+ * loaded on others. The indexes of a table are scheduled once it has been
+ * committed, and at most one index is built on each connection at a time,
+ * so the number of connections bounds the number of concurrent builds.
+ */
+public class IndexScheduler {
+    private BlockingQueue<Connection> mConnections;
+    private ExecutorService mPool;
+    private List<Future<Void>> mResults = new ArrayList<Future<Void>>();
+
+    // the statements of the builds that are running, so that abort can cancel them
+    private Set<Statement> mRunning = new HashSet<Statement>();
+    private boolean mAborted = false;
+
+    private long mStart = System.nanoTime();
+
+    /**
+     * @param workMem the maintenance_work_mem of each build on PostgreSQL,
+     *            such as 256MB, or null to leave it as configured
+     */
+    public IndexScheduler(List<Connection> connections, String workMem) throws SQLException {
+        mConnections = new ArrayBlockingQueue<Connection>(connections.size());
+
+        for (Connection connection : connections) {
+            // each CREATE INDEX is committed as soon as it is built
+            connection.setAutoCommit(true);
+            setWorkMem(connection, workMem);
+
+            mConnections.add(connection);
+        }
+
+        mPool = Executors.newFixedThreadPool(connections.size());
+    }
+
+    /**
+     * Sets the memory that index builds on connection may use, if it is a
+     * PostgreSQL connection and workMem is given.
+     */
+    public static void setWorkMem(Connection connection, String workMem) throws SQLException {
+        if (workMem == null || !"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+            return;
+        }
+
+        Statement st = connection.createStatement();
+        st.execute("SET maintenance_work_mem = '" + workMem.replace("'", "''") + "'");
+        st.close();
+    }
+
+    /**
+     * Starts building the indexes of a table that has been committed.
+     */
+    public synchronized void schedule(List<String> queries) {
+        for (final String query : queries) {
+            mResults.add(mPool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    // there are as many threads as connections
+                    Connection connection = mConnections.take();
+
+                    try {
+                        long start = System.nanoTime();
+
+                        Statement st = connection.createStatement();
+
+                        synchronized (mRunning) {
+                            if (mAborted) {
+                                st.close();
+                                return null;
+                            }
+                            mRunning.add(st);
+                        }
+
+                        try {
+                            st.execute(query);
+                        } finally {
+                            synchronized (mRunning) {
+                                mRunning.remove(st);
+                            }
+                            st.close();
+                        }
+
+                        System.err.println(String.format("%s in %.2fs", query, (System.nanoTime() - start) / 1e9));
+                    } finally {
+                        mConnections.put(connection);
+                    }
+
+                    return null;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Waits for all of the scheduled indexes to be built.
+     *
+     * @return the number of indexes built
+     */
+    public int finish() throws SQLException {
+        long start = System.nanoTime();
+        List<Future<Void>> results;
+
+        synchronized (this) {
+            results = new ArrayList<Future<Void>>(mResults);
+        }
+
+        try {
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof SQLException) {
+                        throw (SQLException) ee.getCause();
+                    }
+                    throw new SQLException("Building indexes failed", ee.getCause());
+                } catch (InterruptedException ie) {
+                    throw new SQLException("Building indexes was interrupted", ie);
+                }
+            }
+        } finally {
+            mPool.shutdownNow();
+        }
+
+        long end = System.nanoTime();
+        System.err.println(String.format("Built %d indexes in %.2fs, waited %.2fs for them after loading", results.size(), (end - mStart) / 1e9, (end - start) / 1e9));
+
+        return results.size();
+    }
+
+    /**
+     * Stops building indexes after the load failed: the builds that have not
+     * started are dropped, and those that are running are cancelled so that
+     * their threads end.
+     */
+    public void abort() {
+        mPool.shutdownNow();
+
+        synchronized (mRunning) {
+            mAborted = true;
+
+            for (Statement st : mRunning) {
+                try {
+                    st.cancel();
+                } catch (SQLException se) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.transitfeeds.gtfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state that belongs to one load of a feed, starting with the
+ * dictionaries that give each route, trip, stop and other GTFS id its index.
+ * Each GtfsParser starts a new context when it parses, so parsers for
+ * different feeds can run in the same process without sharing indexes. It
+ * also collects the TripStats of stop_times and the tables that were loaded
+ * for the optimizer, and the ServiceCalendar built from them.
+ */
+public class LoadContext {
+    private ConcurrentIdDictionary mRouteIds;
+    private ConcurrentIdDictionary mServiceIds;
+    private ConcurrentIdDictionary mTripIds;
+    private ConcurrentIdDictionary mStopIds;
+    private ConcurrentIdDictionary mZoneIds;
+    private ConcurrentIdDictionary mShapeIds;
+    private ConcurrentIdDictionary mBlockIds;
+    private ConcurrentIdDictionary mFareIds;
+
+    // where the dictionaries were loaded from, if anywhere
+    private File mIdDirectory;
+
+    // one for each thread that parsed stop_times, until they are merged
+    private List<TripStats> mTripStats = new ArrayList<TripStats>();
+
+    // the size of the files loaded into each table, in the order loaded
+    private Map<String, Long> mLoadedTables = new LinkedHashMap<String, Long>();
+
+    private ServiceCalendar mServiceCalendar;
+
+    /**
+     * Creates a context whose indexes are numbered from 1.
+     */
+    public LoadContext() {
+        mRouteIds = new ConcurrentIdDictionary();
+        mServiceIds = new ConcurrentIdDictionary();
+        mTripIds = new ConcurrentIdDictionary();
+        mStopIds = new ConcurrentIdDictionary();
+        mZoneIds = new ConcurrentIdDictionary();
+        mShapeIds = new ConcurrentIdDictionary();
+        mBlockIds = new ConcurrentIdDictionary();
+        mFareIds = new ConcurrentIdDictionary();
+    }
+
+    /**
+     * Creates a context that continues the dictionaries saved in directory.
+     * A dictionary that has not been saved yet starts empty.
+     */
+    public LoadContext(File directory) throws IOException {
+        mIdDirectory = directory;
+
+        mRouteIds = loadIds("routes");
+        mServiceIds = loadIds("services");
+        mTripIds = loadIds("trips");
+        mStopIds = loadIds("stops");
+        mZoneIds = loadIds("zones");
+        mShapeIds = loadIds("shapes");
+        mBlockIds = loadIds("blocks");
+        mFareIds = loadIds("fares");
+    }
+
+    private ConcurrentIdDictionary loadIds(String name) throws IOException {
+        File file = new File(mIdDirectory, name + ".ids");
+
+        if (!file.exists()) {
+            return new ConcurrentIdDictionary();
+        }
+
+        MappedIdDictionary ids = new MappedIdDictionary(file);
+        System.err.println(String.format("Loaded %d %s ids from %s", ids.size(), name, file.getPath()));
+
+        return new ConcurrentIdDictionary(ids);
+    }
+
+    /**
+     * Writes the dictionaries back to the directory they were loaded from, if
+     * they were.
+     */
+    public void saveIds() throws IOException {
+        if (mIdDirectory == null) {
+            return;
+        }
+
+        if (!mIdDirectory.isDirectory() && !mIdDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mIdDirectory.getPath());
+        }
+
+        saveIds("routes", mRouteIds);
+        saveIds("services", mServiceIds);
+        saveIds("trips", mTripIds);
+        saveIds("stops", mStopIds);
+        saveIds("zones", mZoneIds);
+        saveIds("shapes", mShapeIds);
+        saveIds("blocks", mBlockIds);
+        saveIds("fares", mFareIds);
+    }
+
+    private void saveIds(String name, ConcurrentIdDictionary ids) throws IOException {
+        File file = new File(mIdDirectory, name + ".ids");
+
+        ids.write(file);
+        System.err.println(String.format("Saved %d %s ids to %s", ids.size(), name, file.getPath()));
+    }
+
+    /**
+     * Returns new TripStats for a thread that parses stop_times to fill.
+     */
+    public synchronized TripStats newTripStats() {
+        TripStats stats = new TripStats();
+        mTripStats.add(stats);
+        return stats;
+    }
+
+    /**
+     * Returns the TripStats of all of the threads that parsed stop_times
+     * merged together, or null if stop_times was not loaded.
+     */
+    public synchronized TripStats getTripStats() {
+        if (mTripStats.size() == 0) {
+            return null;
+        }
+
+        TripStats merged = mTripStats.get(0);
+
+        for (int i = 1; i < mTripStats.size(); i++) {
+            merged.merge(mTripStats.get(i));
+        }
+
+        mTripStats.clear();
+        mTripStats.add(merged);
+
+        return merged;
+    }
+
+    /**
+     * Records that a file of the given size was loaded into table.
+     */
+    public synchronized void addLoadedTable(String table, long bytes) {
+        Long loaded = mLoadedTables.get(table);
+        mLoadedTables.put(table, loaded != null ? loaded + bytes : bytes);
+    }
+
+    /**
+     * Returns the tables that were loaded, with the size of the files that
+     * were loaded into each.
+     */
+    public synchronized Map<String, Long> getLoadedTables() {
+        return new LinkedHashMap<String, Long>(mLoadedTables);
+    }
+
+    public void setServiceCalendar(ServiceCalendar calendar) {
+        mServiceCalendar = calendar;
+    }
+
+    /**
+     * Returns the days of each service, or null if neither calendar nor
+     * calendar_dates was loaded.
+     */
+    public ServiceCalendar getServiceCalendar() {
+        return mServiceCalendar;
+    }
+
+    public ConcurrentIdDictionary getRouteIds() {
+        return mRouteIds;
+    }
+
+    public ConcurrentIdDictionary getServiceIds() {
+        return mServiceIds;
+    }
+
+    public ConcurrentIdDictionary getTripIds() {
+        return mTripIds;
+    }
+
+    public ConcurrentIdDictionary getStopIds() {
+        return mStopIds;
+    }
+
+    public ConcurrentIdDictionary getZoneIds() {
+        return mZoneIds;
+    }
+
+    public ConcurrentIdDictionary getShapeIds() {
+        return mShapeIds;
+    }
+
+    public ConcurrentIdDictionary getBlockIds() {
+        return mBlockIds;
+    }
+
+    public ConcurrentIdDictionary getFareIds() {
+        return mFareIds;
+    }
+}
@@ -0,0 +1,174 @@
+package com.transitfeeds.gtfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only IdDictionary that was written to a file by
+ * ConcurrentIdDictionary.write. The file is memory-mapped and searched in
+ * place, so opening it takes the same time however many keys it holds, and
+ * its pages are only read as they are used. It can be shared by threads.
+ */
+public class MappedIdDictionary {
+    public static final int MAGIC = 0x47494453;
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 5 * 4;
+
+    private int mSize;
+    private IntBuffer mSlots;
+    private IntBuffer mOffsets;
+    private IntBuffer mHashes;
+    private ByteBuffer mArena;
+
+    public MappedIdDictionary(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+
+        try {
+            // the mapping stays valid once the file is closed
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file.getPath() + " is not an id dictionary");
+        }
+
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(file.getPath() + " has version " + buffer.getInt(4) + " of the id dictionary format, expected " + VERSION);
+        }
+
+        mSize = buffer.getInt(8);
+        int slots = buffer.getInt(12);
+        int arenaLength = buffer.getInt(16);
+
+        long length = HEADER_SIZE + 4L * (slots + 2 * (mSize + 1)) + arenaLength;
+
+        if (buffer.capacity() != length || Integer.bitCount(slots) != 1 || mSize >= slots) {
+            throw new IOException(file.getPath() + " is truncated or damaged");
+        }
+
+        int pos = HEADER_SIZE;
+        mSlots = slice(buffer, pos, slots * 4).asIntBuffer();
+        pos += slots * 4;
+        mOffsets = slice(buffer, pos, (mSize + 1) * 4).asIntBuffer();
+        pos += (mSize + 1) * 4;
+        mHashes = slice(buffer, pos, (mSize + 1) * 4).asIntBuffer();
+        pos += (mSize + 1) * 4;
+        mArena = slice(buffer, pos, arenaLength);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer ret = buffer.duplicate();
+        ret.position(position);
+        ret.limit(position + length);
+        return ret.slice();
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the id of key, or 0 if it is not in the file.
+     */
+    public int get(CharSequence key) {
+        return get(key, IdDictionary.hash(key));
+    }
+
+    int get(CharSequence key, int hash) {
+        if (mSize == 0) {
+            return 0;
+        }
+
+        int mask = mSlots.capacity() - 1;
+        int slot = hash & mask;
+
+        while (true) {
+            int id = mSlots.get(slot);
+
+            if (id == 0) {
+                return 0;
+            }
+
+            if (mHashes.get(id) == hash && matches(id, key)) {
+                return id;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the key that was given id.
+     */
+    public String getKey(int id) {
+        if (id < 1 || id > mSize) {
+            throw new IndexOutOfBoundsException("No key with id " + id);
+        }
+
+        int end = mOffsets.get(id);
+        char[] chars = new char[end - mOffsets.get(id - 1)];
+        int length = 0;
+
+        for (int pos = mOffsets.get(id - 1); pos < end; length++) {
+            int b = mArena.get(pos++);
+
+            if (b >= 0) {
+                chars[length] = (char) b;
+            }
+            else if ((b & 0xE0) == 0xC0) {
+                chars[length] = (char) (((b & 0x1F) << 6) | (mArena.get(pos++) & 0x3F));
+            }
+            else {
+                chars[length] = (char) (((b & 0x0F) << 12) | ((mArena.get(pos++) & 0x3F) << 6) | (mArena.get(pos++) & 0x3F));
+            }
+        }
+
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Compares key with the bytes of id, encoding it as IdDictionary does.
+     */
+    private boolean matches(int id, CharSequence key) {
+        ByteBuffer arena = mArena;
+        int pos = mOffsets.get(id - 1);
+        int end = mOffsets.get(id);
+        int length = key.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+
+            if (c < 0x80) {
+                if (pos >= end || arena.get(pos++) != (byte) c) {
+                    return false;
+                }
+            }
+            else if (c < 0x800) {
+                if (pos + 2 > end
+                        || arena.get(pos++) != (byte) (0xC0 | (c >> 6))
+                        || arena.get(pos++) != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+            else {
+                if (pos + 3 > end
+                        || arena.get(pos++) != (byte) (0xE0 | (c >> 12))
+                        || arena.get(pos++) != (byte) (0x80 | ((c >> 6) & 0x3F))
+                        || arena.get(pos++) != (byte) (0x80 | (c & 0x3F))) {
+                    return false;
+                }
+            }
+        }
+
+        return pos == end;
+    }
+}
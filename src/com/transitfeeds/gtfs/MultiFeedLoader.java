@@ -0,0 +1,224 @@
+package com.transitfeeds.gtfs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+
+/**
+ * Loads several feeds, each into its own database, with at most a given
+ * number of feeds loading at a time. Each feed gets its own GtfsParser and
+ * therefore its own LoadContext.
+ *
+ * The feeds are run on an ExecutorService given by the caller, or on a pool
+ * of threads made by a ThreadFactory, such as one that makes virtual
+ * threads.
+ */
+public class MultiFeedLoader {
+    private int mParallelism;
+    private ExecutorService mExecutor;
+    private boolean mOwnExecutor;
+
+    private List<Feed> mFeeds = new ArrayList<Feed>();
+
+    private String mUsername;
+    private String mPassword;
+    private boolean mOptimize = false;
+
+    public MultiFeedLoader(int parallelism) {
+        this(parallelism, Executors.defaultThreadFactory());
+    }
+
+    public MultiFeedLoader(int parallelism, ThreadFactory threadFactory) {
+        this(parallelism, Executors.newFixedThreadPool(Math.max(1, parallelism), threadFactory));
+        mOwnExecutor = true;
+    }
+
+    /**
+     * Runs the feeds on executor, which is left running once they are loaded.
+     */
+    public MultiFeedLoader(int parallelism, ExecutorService executor) {
+        mParallelism = Math.max(1, parallelism);
+        mExecutor = executor;
+    }
+
+    public void setCredentials(String username, String password) {
+        mUsername = username;
+        mPassword = password;
+    }
+
+    public void setOptimize(boolean optimize) {
+        mOptimize = optimize;
+    }
+
+    /**
+     * Adds a feed to load from the GTFS directory gtfsFile into the database
+     * at connectionString. If idDirectory is not null, ids are kept there
+     * between runs as with GtfsParser.setIdDirectory.
+     */
+    public void addFeed(File gtfsFile, String connectionString, File idDirectory) {
+        mFeeds.add(new Feed(gtfsFile, connectionString, idDirectory));
+    }
+
+    /**
+     * Loads the feeds, starting them in the order they were added.
+     *
+     * @return the exception for each feed that could not be loaded
+     */
+    public Map<File, Exception> load() throws Exception {
+        Map<File, Exception> failed = new LinkedHashMap<File, Exception>();
+        CompletionService<Feed> loads = new ExecutorCompletionService<Feed>(mExecutor);
+
+        Iterator<Feed> it = mFeeds.iterator();
+        int running = 0;
+
+        try {
+            while (it.hasNext() || running > 0) {
+                while (running < mParallelism && it.hasNext()) {
+                    final Feed feed = it.next();
+                    running++;
+
+                    loads.submit(new Callable<Feed>() {
+                        @Override
+                        public Feed call() throws Exception {
+                            try {
+                                load(feed);
+                            } catch (Exception e) {
+                                System.err.println("Exception loading " + feed.mGtfsFile.getPath() + ": " + e.getLocalizedMessage());
+                                feed.mException = e;
+                            }
+
+                            return feed;
+                        }
+                    });
+                }
+
+                Feed feed = loads.take().get();
+                running--;
+
+                if (feed.mException != null) {
+                    failed.put(feed.mGtfsFile, feed.mException);
+                }
+            }
+        } finally {
+            if (mOwnExecutor) {
+                mExecutor.shutdownNow();
+            }
+        }
+
+        System.err.println(String.format("Loaded %d of %d feeds", mFeeds.size() - failed.size(), mFeeds.size()));
+
+        return failed;
+    }
+
+    private void load(Feed feed) throws Exception {
+        long start = System.nanoTime();
+        Connection connection = DriverManager.getConnection(feed.mConnectionString, mUsername, mPassword);
+
+        try {
+            GtfsParser gtfs = new GtfsParser(feed.mGtfsFile, connection);
+
+            if (feed.mIdDirectory != null) {
+                gtfs.setIdDirectory(feed.mIdDirectory);
+            }
+
+            gtfs.parse();
+
+            if (mOptimize) {
+                GtfsOptimizer optimizer = new GtfsOptimizer(connection);
+                optimizer.setContext(gtfs.getContext());
+                optimizer.optimize();
+            }
+        } finally {
+            connection.close();
+        }
+
+        System.err.println(String.format("Loaded %s in %.2fs", feed.mGtfsFile.getPath(), (System.nanoTime() - start) / 1e9));
+    }
+
+    private static class Feed {
+        public File mGtfsFile;
+        public String mConnectionString;
+        public File mIdDirectory;
+        public Exception mException;
+
+        public Feed(File gtfsFile, String connectionString, File idDirectory) {
+            mGtfsFile = gtfsFile;
+            mConnectionString = connectionString;
+            mIdDirectory = idDirectory;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+
+        options.addOption("f", true, "File listing the feeds, one per line as GTFS path, JDBC connection and optionally an id directory, separated by tabs");
+        options.addOption("n", true, "Number of feeds loaded at a time");
+        options.addOption("o", false, "Run optimizer");
+        options.addOption("dbusername", true, "Database username");
+        options.addOption("dbpassword", true, "Database password");
+
+        CommandLineParser parser = new GnuParser();
+        CommandLine line = parser.parse(options, args);
+
+        if (!line.hasOption("f")) {
+            System.err.println("Feed list must be specified");
+            new HelpFormatter().printHelp("MultiFeedLoader", options);
+            System.exit(1);
+        }
+
+        int parallelism = line.hasOption("n") ? Integer.parseInt(line.getOptionValue("n")) : Runtime.getRuntime().availableProcessors();
+
+        MultiFeedLoader loader = new MultiFeedLoader(parallelism);
+        loader.setCredentials(line.getOptionValue("dbusername"), line.getOptionValue("dbpassword"));
+        loader.setOptimize(line.hasOption("o"));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(line.getOptionValue("f")), "UTF-8"));
+        String feedLine;
+
+        while ((feedLine = reader.readLine()) != null) {
+            if (feedLine.trim().length() == 0 || feedLine.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = feedLine.split("\t");
+
+            if (parts.length < 2) {
+                reader.close();
+                throw new IllegalArgumentException("Expected a GTFS path and a JDBC connection, not " + feedLine);
+            }
+
+            if (parts[1].startsWith("jdbc:sqlite:")) {
+                // may not work without this call
+                Class.forName("org.sqlite.JDBC");
+            }
+
+            loader.addFeed(new File(parts[0]), parts[1], parts.length > 2 ? new File(parts[2]) : null);
+        }
+
+        reader.close();
+
+        if (loader.load().size() > 0) {
+            System.exit(4);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.transitfeeds.gtfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.csvreader.CsvReader;
+import com.csvreader.CsvWriter;
+
+/**
+ * Sorts stop_times.txt by trip_index and stop_sequence, or shapes.txt by
+ * shape_index and shape_pt_sequence, into a temporary file, which is then
+ * loaded in place of it, so that the rows of each trip or shape are stored
+ * together. Records are sorted in memory up to a given size, and beyond it
+ * in runs that are spilled to temporary files and merged.
+ *
+ * The ids are mapped in the order of the original file, so they get the
+ * same indexes as they would without sorting. Records with the same
+ * sequence, or one that is not a number, stay in the order of the file.
+ */
+public class SequenceSorter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the estimated overhead of a record and of each of its values
+    private static final int RECORD_BYTES = 64;
+    private static final int VALUE_BYTES = 48;
+
+    private static final Comparator<Record> ORDER = new Comparator<Record>() {
+        @Override
+        public int compare(Record a, Record b) {
+            if (a.mIndex != b.mIndex) {
+                return a.mIndex < b.mIndex ? -1 : 1;
+            }
+            if (a.mSequence != b.mSequence) {
+                return a.mSequence < b.mSequence ? -1 : 1;
+            }
+            return a.mNumber < b.mNumber ? -1 : a.mNumber > b.mNumber ? 1 : 0;
+        }
+    };
+
+    private GtfsParser mParser;
+    private String mTable;
+    private long mMemory;
+    private File mDirectory;
+
+    private long mRecordCount = 0;
+
+    /**
+     * Returns whether a file for table can be sorted.
+     */
+    public static boolean supports(String table) {
+        return table.equals("stop_times") || table.equals("shapes");
+    }
+
+    /**
+     * @param parser the parser whose ids the trips, stops and shapes are
+     *            mapped with
+     * @param table stop_times or shapes
+     * @param memory the size of the records held in memory, in bytes
+     * @param directory where the runs and the sorted file are written, or
+     *            null for the default temporary directory
+     */
+    public SequenceSorter(GtfsParser parser, String table, long memory, File directory) {
+        if (!supports(table)) {
+            throw new IllegalArgumentException("Unable to sort " + table);
+        }
+
+        mParser = parser;
+        mTable = table;
+        mMemory = memory;
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the number of records in the file that was last sorted.
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Writes the records of csv, whose headers have not been read yet, to a
+     * new temporary file in order, as UTF-8 with a byte order mark.
+     *
+     * @return the sorted file, which the caller deletes
+     */
+    public File sort(CsvReader csv) throws IOException {
+        long start = System.nanoTime();
+
+        csv.readHeaders();
+        String[] headers = csv.getHeaders();
+
+        boolean shapes = mTable.equals("shapes");
+
+        int idIdx = csv.getIndex(shapes ? "shape_id" : "trip_id");
+        int sequenceIdx = csv.getIndex(shapes ? "shape_pt_sequence" : "stop_sequence");
+        int stopIdIdx = shapes ? -1 : csv.getIndex("stop_id");
+
+        List<Record> records = new ArrayList<Record>();
+        List<File> runs = new ArrayList<File>();
+        long size = 0;
+        long number = 0;
+
+        String lastId = null;
+        int lastIndex = 0;
+
+        try {
+            while (csv.readRecord()) {
+                String[] values = csv.getValues();
+
+                String id = idIdx >= 0 ? csv.get(idIdx) : "";
+
+                if (lastId == null || !lastId.equals(id)) {
+                    lastId = id;
+                    lastIndex = shapes ? mParser.getMappedShapeId(id) : mParser.getMappedTripId(id);
+                }
+
+                if (stopIdIdx >= 0) {
+                    mParser.getMappedStopId(csv.getCharSequence(stopIdIdx));
+                }
+
+                int sequence = sequenceIdx >= 0 ? csv.getInt(sequenceIdx, Integer.MAX_VALUE) : Integer.MAX_VALUE;
+
+                records.add(new Record(lastIndex, sequence, number++, values));
+                size += getSize(values);
+
+                if (size >= mMemory) {
+                    runs.add(writeRun(records));
+                    records.clear();
+                    size = 0;
+                }
+            }
+
+            File sorted = File.createTempFile(mTable, ".txt", mDirectory);
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(sorted), 1 << 16);
+
+            // the byte order mark makes the file be read back as UTF-8
+            os.write(new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF });
+
+            CsvWriter writer = new CsvWriter(os, ',', UTF8);
+
+            try {
+                writer.writeRecord(headers, true);
+
+                if (runs.size() == 0) {
+                    Collections.sort(records, ORDER);
+
+                    for (Record record : records) {
+                        writer.writeRecord(record.mValues, true);
+                    }
+                }
+                else {
+                    if (records.size() > 0) {
+                        runs.add(writeRun(records));
+                        records.clear();
+                    }
+
+                    merge(runs, writer);
+                }
+            } catch (IOException ioe) {
+                writer.close();
+                sorted.delete();
+                throw ioe;
+            }
+
+            writer.close();
+
+            System.err.println(String.format("Sorted %d %s records in %d runs in %.2fs", number, mTable, Math.max(1, runs.size()), (System.nanoTime() - start) / 1e9));
+            mRecordCount = number;
+
+            return sorted;
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private static long getSize(String[] values) {
+        long size = RECORD_BYTES;
+
+        for (String value : values) {
+            size += VALUE_BYTES + 2 * value.length();
+        }
+
+        return size;
+    }
+
+    private File writeRun(List<Record> records) throws IOException {
+        Collections.sort(records, ORDER);
+
+        File run = File.createTempFile(mTable, ".run", mDirectory);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+
+        try {
+            for (Record record : records) {
+                out.writeInt(record.mIndex);
+                out.writeInt(record.mSequence);
+                out.writeLong(record.mNumber);
+                out.writeInt(record.mValues.length);
+
+                for (String value : record.mValues) {
+                    out.writeUTF(value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        return run;
+    }
+
+    private void merge(List<File> runs, CsvWriter writer) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>() {
+            @Override
+            public int compare(RunReader a, RunReader b) {
+                return ORDER.compare(a.mRecord, b.mRecord);
+            }
+        });
+
+        List<RunReader> readers = new ArrayList<RunReader>();
+
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+
+            while (queue.size() > 0) {
+                RunReader reader = queue.poll();
+                writer.writeRecord(reader.mRecord.mValues, true);
+
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private static class Record {
+        public int mIndex;
+        public int mSequence;
+        public long mNumber;
+        public String[] mValues;
+
+        public Record(int index, int sequence, long number, String[] values) {
+            mIndex = index;
+            mSequence = sequence;
+            mNumber = number;
+            mValues = values;
+        }
+    }
+
+    private static class RunReader {
+        private DataInputStream mIn;
+        public Record mRecord;
+
+        public RunReader(File run) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+        }
+
+        public boolean next() throws IOException {
+            int index;
+
+            try {
+                index = mIn.readInt();
+            } catch (EOFException e) {
+                mRecord = null;
+                return false;
+            }
+
+            int sequence = mIn.readInt();
+            long number = mIn.readLong();
+            String[] values = new String[mIn.readInt()];
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = mIn.readUTF();
+            }
+
+            mRecord = new Record(index, sequence, number, values);
+            return true;
+        }
+
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.transitfeeds.gtfs;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The days on which each service runs, expanded from calendar and
+ * calendar_dates into a bitset per service_index. Bit i of a service is set
+ * if it runs i days after its start date, and bit i is bit i % 8 of byte
+ * i / 8. The bitsets are kept in the service_days table, so a database can
+ * be asked which services run on a date without joining the two tables.
+ *
+ * Dates are given as GTFS dates, YYYYMMDD, and counted internally as days
+ * since 1970-01-01.
+ */
+public class ServiceCalendar {
+    public static final String TABLE = "service_days";
+
+    private int[] mStarts = new int[0];
+    private byte[][] mDays = new byte[0][];
+    private int mCount;
+
+    // the services that run on each day from mFirstDay, built when first asked
+    private int mFirstDay;
+    private int[][] mDayServices;
+
+    private ServiceCalendar() {
+    }
+
+    /**
+     * Builds the calendar from the calendar and calendar_dates tables of a
+     * loaded database. Rows with dates that cannot be read are skipped.
+     */
+    public static ServiceCalendar build(Connection connection) throws SQLException {
+        List<int[]> weeks = new ArrayList<int[]>();
+        List<int[]> dates = new ArrayList<int[]>();
+
+        Statement st = connection.createStatement();
+
+        ResultSet result = st.executeQuery("SELECT service_index, monday, tuesday, wednesday, thursday, friday, saturday, sunday, start_date, end_date FROM calendar");
+
+        while (result.next()) {
+            int weekdays = 0;
+
+            for (int i = 0; i < 7; i++) {
+                if (result.getInt(2 + i) == 1) {
+                    weekdays |= 1 << i;
+                }
+            }
+
+            int start = getDay(result.getString(9));
+            int end = getDay(result.getString(10));
+
+            if (start == Integer.MIN_VALUE || end == Integer.MIN_VALUE || end < start) {
+                continue;
+            }
+
+            weeks.add(new int[] { result.getInt(1), weekdays, start, end });
+        }
+
+        result.close();
+
+        result = st.executeQuery("SELECT service_index, date, exception_type FROM calendar_dates");
+
+        while (result.next()) {
+            int day = getDay(result.getString(2));
+
+            if (day == Integer.MIN_VALUE) {
+                continue;
+            }
+
+            dates.add(new int[] { result.getInt(1), day, result.getInt(3) });
+        }
+
+        result.close();
+        st.close();
+
+        ServiceCalendar calendar = new ServiceCalendar();
+
+        // the range of each service covers its calendar and its added dates
+        int[] starts = new int[0];
+        int[] ends = new int[0];
+
+        for (int[] week : weeks) {
+            starts = grow(starts, week[0], Integer.MAX_VALUE);
+            ends = grow(ends, week[0], Integer.MIN_VALUE);
+            starts[week[0]] = Math.min(starts[week[0]], week[2]);
+            ends[week[0]] = Math.max(ends[week[0]], week[3]);
+        }
+
+        for (int[] date : dates) {
+            if (date[2] == 1) {
+                starts = grow(starts, date[0], Integer.MAX_VALUE);
+                ends = grow(ends, date[0], Integer.MIN_VALUE);
+                starts[date[0]] = Math.min(starts[date[0]], date[1]);
+                ends[date[0]] = Math.max(ends[date[0]], date[1]);
+            }
+        }
+
+        for (int serviceIndex = 0; serviceIndex < starts.length; serviceIndex++) {
+            if (starts[serviceIndex] <= ends[serviceIndex]) {
+                calendar.set(serviceIndex, starts[serviceIndex], new byte[(ends[serviceIndex] - starts[serviceIndex]) / 8 + 1]);
+            }
+        }
+
+        for (int[] week : weeks) {
+            for (int day = week[2]; day <= week[3]; day++) {
+                if ((week[1] & (1 << getWeekday(day))) != 0) {
+                    calendar.setActive(week[0], day, true);
+                }
+            }
+        }
+
+        // exceptions are applied after all of the calendars
+        for (int[] date : dates) {
+            if (date[2] == 1 || date[2] == 2) {
+                calendar.setActive(date[0], date[1], date[2] == 1);
+            }
+        }
+
+        return calendar;
+    }
+
+    /**
+     * Reads the calendar that was written to the service_days table.
+     */
+    public static ServiceCalendar read(Connection connection) throws SQLException {
+        ServiceCalendar calendar = new ServiceCalendar();
+
+        Statement st = connection.createStatement();
+        ResultSet result = st.executeQuery("SELECT service_index, start_date, days FROM " + TABLE);
+
+        while (result.next()) {
+            byte[] days = result.getBytes(3);
+            calendar.set(result.getInt(1), getDay(result.getString(2)), days != null ? days : new byte[0]);
+        }
+
+        result.close();
+        st.close();
+
+        return calendar;
+    }
+
+    /**
+     * Writes the calendar to the service_days table, replacing it if it
+     * exists. The caller commits.
+     */
+    public void write(Connection connection) throws SQLException {
+        boolean postgres = "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName());
+        Statement st = connection.createStatement();
+
+        st.execute("DROP TABLE IF EXISTS " + TABLE);
+        st.execute(String.format("CREATE TABLE %s (service_index INTEGER, start_date TEXT, day_count INTEGER, days %s)", TABLE, postgres ? "BYTEA" : "BLOB"));
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO " + TABLE + " (service_index, start_date, day_count, days) VALUES (?, ?, ?, ?)");
+        int services = 0;
+
+        for (int serviceIndex = 0; serviceIndex < mDays.length; serviceIndex++) {
+            if (mDays[serviceIndex] == null) {
+                continue;
+            }
+
+            int dayCount = getDayCount(serviceIndex);
+
+            insert.setInt(1, serviceIndex);
+            insert.setString(2, getDate(mStarts[serviceIndex]));
+            insert.setInt(3, dayCount);
+            insert.setBytes(4, Arrays.copyOf(mDays[serviceIndex], (dayCount + 7) / 8));
+            insert.addBatch();
+
+            services++;
+        }
+
+        insert.executeBatch();
+        insert.close();
+
+        st.execute(String.format("CREATE INDEX %s_service_index ON %s (service_index)", TABLE, TABLE));
+        st.close();
+
+        System.err.println(String.format("Wrote the days of %d services to %s", services, TABLE));
+    }
+
+    /**
+     * Returns whether the service runs on date, given as YYYYMMDD.
+     */
+    public boolean isActive(int serviceIndex, String date) {
+        return isActive(serviceIndex, getDay(date));
+    }
+
+    private boolean isActive(int serviceIndex, int day) {
+        if (day == Integer.MIN_VALUE || serviceIndex < 0 || serviceIndex >= mDays.length || mDays[serviceIndex] == null) {
+            return false;
+        }
+
+        int bit = day - mStarts[serviceIndex];
+
+        if (bit < 0 || bit >= mDays[serviceIndex].length * 8) {
+            return false;
+        }
+
+        return (mDays[serviceIndex][bit >> 3] & (1 << (bit & 7))) != 0;
+    }
+
+    /**
+     * Returns the indexes of the services that run on date, given as
+     * YYYYMMDD, in increasing order. The services of each day are worked out
+     * once, on the first call.
+     */
+    public synchronized int[] getActiveServices(String date) {
+        if (mDayServices == null) {
+            indexDays();
+        }
+
+        int day = getDay(date);
+
+        if (day == Integer.MIN_VALUE || day < mFirstDay || day - mFirstDay >= mDayServices.length) {
+            return new int[0];
+        }
+
+        return mDayServices[day - mFirstDay].clone();
+    }
+
+    /**
+     * Returns the first date on which any service runs, or null if none do.
+     */
+    public String getStartDate() {
+        int first = Integer.MAX_VALUE;
+
+        for (int serviceIndex = 0; serviceIndex < mDays.length; serviceIndex++) {
+            if (mDays[serviceIndex] != null) {
+                first = Math.min(first, mStarts[serviceIndex]);
+            }
+        }
+
+        return first == Integer.MAX_VALUE ? null : getDate(first);
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    private void indexDays() {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+
+        for (int serviceIndex = 0; serviceIndex < mDays.length; serviceIndex++) {
+            if (mDays[serviceIndex] != null) {
+                first = Math.min(first, mStarts[serviceIndex]);
+                last = Math.max(last, mStarts[serviceIndex] + getDayCount(serviceIndex) - 1);
+            }
+        }
+
+        if (first > last) {
+            mFirstDay = 0;
+            mDayServices = new int[0][];
+            return;
+        }
+
+        int[] counts = new int[last - first + 1];
+        int[][] services = new int[counts.length][];
+
+        for (int i = 0; i < services.length; i++) {
+            services[i] = new int[4];
+        }
+
+        for (int serviceIndex = 0; serviceIndex < mDays.length; serviceIndex++) {
+            if (mDays[serviceIndex] == null) {
+                continue;
+            }
+
+            int dayCount = getDayCount(serviceIndex);
+
+            for (int bit = 0; bit < dayCount; bit++) {
+                if ((mDays[serviceIndex][bit >> 3] & (1 << (bit & 7))) == 0) {
+                    continue;
+                }
+
+                int i = mStarts[serviceIndex] + bit - first;
+
+                if (counts[i] == services[i].length) {
+                    services[i] = Arrays.copyOf(services[i], counts[i] * 2);
+                }
+                services[i][counts[i]++] = serviceIndex;
+            }
+        }
+
+        for (int i = 0; i < services.length; i++) {
+            services[i] = Arrays.copyOf(services[i], counts[i]);
+        }
+
+        mFirstDay = first;
+        mDayServices = services;
+    }
+
+    // the number of days up to and including the last day that is set
+    private int getDayCount(int serviceIndex) {
+        byte[] days = mDays[serviceIndex];
+
+        for (int i = days.length - 1; i >= 0; i--) {
+            if (days[i] != 0) {
+                return i * 8 + 32 - Integer.numberOfLeadingZeros(days[i] & 0xFF);
+            }
+        }
+
+        return 0;
+    }
+
+    private void set(int serviceIndex, int start, byte[] days) {
+        if (serviceIndex >= mDays.length) {
+            int length = Math.max(serviceIndex + 1, mDays.length * 2);
+            mStarts = Arrays.copyOf(mStarts, length);
+            mDays = Arrays.copyOf(mDays, length);
+        }
+
+        if (mDays[serviceIndex] == null) {
+            mCount++;
+        }
+
+        mStarts[serviceIndex] = start;
+        mDays[serviceIndex] = days;
+        mDayServices = null;
+    }
+
+    private void setActive(int serviceIndex, int day, boolean active) {
+        if (serviceIndex < 0 || serviceIndex >= mDays.length || mDays[serviceIndex] == null) {
+            return;
+        }
+
+        int bit = day - mStarts[serviceIndex];
+
+        if (bit < 0 || bit >= mDays[serviceIndex].length * 8) {
+            return;
+        }
+
+        if (active) {
+            mDays[serviceIndex][bit >> 3] |= 1 << (bit & 7);
+        }
+        else {
+            mDays[serviceIndex][bit >> 3] &= ~(1 << (bit & 7));
+        }
+    }
+
+    private static int[] grow(int[] values, int index, int fill) {
+        if (index < values.length) {
+            return values;
+        }
+
+        int length = Math.max(index + 1, values.length * 2);
+        int[] ret = Arrays.copyOf(values, length);
+
+        Arrays.fill(ret, values.length, length, fill);
+        return ret;
+    }
+
+    /**
+     * Returns the days from 1970-01-01 to date, given as YYYYMMDD, or
+     * Integer.MIN_VALUE if it is not a date.
+     */
+    static int getDay(String date) {
+        if (date == null) {
+            return Integer.MIN_VALUE;
+        }
+
+        date = date.trim();
+
+        if (date.length() != 8) {
+            return Integer.MIN_VALUE;
+        }
+
+        int value = 0;
+
+        for (int i = 0; i < 8; i++) {
+            char c = date.charAt(i);
+
+            if (c < '0' || c > '9') {
+                return Integer.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        int year = value / 10000;
+        int month = value / 100 % 100;
+        int dayOfMonth = value % 100;
+
+        if (month < 1 || month > 12 || dayOfMonth < 1 || dayOfMonth > 31) {
+            return Integer.MIN_VALUE;
+        }
+
+        // days from civil, counting years from March so that leap days come last
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + dayOfMonth - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns day, counted from 1970-01-01, as YYYYMMDD.
+     */
+    static String getDate(int day) {
+        int z = day + 719468;
+        int era = z / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return String.format("%04d%02d%02d", year, month, dayOfMonth);
+    }
+
+    // 0 for Monday, as the weekday columns of calendar are ordered
+    private static int getWeekday(int day) {
+        // 1970-01-01 was a Thursday
+        return ((day + 3) % 7 + 7) % 7;
+    }
+}
@@ -0,0 +1,160 @@
+package com.transitfeeds.gtfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Builds a SQLite database away from its target path with settings meant
+ * for a bulk load, then moves it into place in one step. A reader of the
+ * target never sees a partly built database, and a failed build leaves the
+ * previous one in place.
+ *
+ * The database is built either in memory, which is fastest but must fit in
+ * the heap of the SQLite library, or in a temporary file next to the target.
+ * The journal and syncing are turned off while building since an
+ * interrupted build is discarded anyway. If asked to, the database is
+ * vacuumed before it is moved, which needs room for a second copy of it
+ * while it runs.
+ */
+public class SqliteBulkBuilder {
+    public static final String STAGE_MEMORY = "memory";
+    public static final String STAGE_FILE = "file";
+
+    private static final int PAGE_SIZE = 4096;
+
+    // in pages, about 400 MB
+    private static final int CACHE_SIZE = 100000;
+
+    private File mTarget;
+    private boolean mInMemory;
+
+    private File mStagingFile;
+    private Connection mConnection;
+
+    private boolean mVacuum = false;
+
+    public SqliteBulkBuilder(File target, String stage) {
+        if (!STAGE_MEMORY.equals(stage) && !STAGE_FILE.equals(stage)) {
+            throw new IllegalArgumentException("Unknown staging mode " + stage + ", use " + STAGE_MEMORY + " or " + STAGE_FILE);
+        }
+
+        mTarget = target.getAbsoluteFile();
+        mInMemory = STAGE_MEMORY.equals(stage);
+    }
+
+    /**
+     * Creates the database being built and returns a connection to it.
+     */
+    public Connection open() throws SQLException, IOException {
+        String url;
+
+        if (mInMemory) {
+            url = "jdbc:sqlite::memory:";
+        }
+        else {
+            mStagingFile = File.createTempFile(mTarget.getName() + ".", ".tmp", mTarget.getParentFile());
+            mStagingFile.delete();
+            url = "jdbc:sqlite:" + mStagingFile.getPath();
+        }
+
+        mConnection = DriverManager.getConnection(url);
+
+        Statement stmt = mConnection.createStatement();
+
+        // page_size only applies if it is set before the first table is created
+        execute(stmt, "PRAGMA page_size = " + PAGE_SIZE);
+        execute(stmt, "PRAGMA journal_mode = OFF");
+        execute(stmt, "PRAGMA synchronous = OFF");
+        execute(stmt, "PRAGMA cache_size = " + CACHE_SIZE);
+        execute(stmt, "PRAGMA temp_store = MEMORY");
+        execute(stmt, "PRAGMA locking_mode = EXCLUSIVE");
+
+        stmt.close();
+
+        return mConnection;
+    }
+
+    /**
+     * Sets whether finish runs VACUUM before the database is moved. It is
+     * only worth it once the database has been changed after the load.
+     */
+    public void setVacuum(boolean vacuum) {
+        mVacuum = vacuum;
+    }
+
+    /**
+     * Closes the connection returned by open() and replaces the target with
+     * the database that was built, after vacuuming it if asked to. A
+     * database built in memory is written out with the online backup API,
+     * which copies its pages as they are.
+     */
+    public void finish() throws SQLException, IOException {
+        // VACUUM cannot run inside a transaction
+        if (!mConnection.getAutoCommit()) {
+            mConnection.commit();
+            mConnection.setAutoCommit(true);
+        }
+
+        Statement stmt = mConnection.createStatement();
+
+        if (mVacuum) {
+            // the optimizer updates the loaded tables and adds others, which
+            // leaves their pages interleaved and partly empty
+            long start = System.nanoTime();
+            execute(stmt, "VACUUM");
+            System.err.println(String.format("Vacuumed in %.2fs", (System.nanoTime() - start) / 1e9));
+        }
+
+        if (mInMemory) {
+            mStagingFile = File.createTempFile(mTarget.getName() + ".", ".tmp", mTarget.getParentFile());
+            mStagingFile.delete();
+
+            System.err.println("Writing database to " + mStagingFile.getPath());
+            stmt.executeUpdate("backup to \"" + mStagingFile.getPath() + "\"");
+        }
+
+        stmt.close();
+
+        mConnection.close();
+        mConnection = null;
+
+        // the file was built without syncing, so make sure it is on disk before it replaces the target
+        RandomAccessFile file = new RandomAccessFile(mStagingFile, "rw");
+        file.getChannel().force(true);
+        file.close();
+
+        // fails rather than leave a moment with no database at the target
+        Files.move(mStagingFile.toPath(), mTarget.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        System.err.println("Moved database to " + mTarget.getPath());
+        mStagingFile = null;
+    }
+
+    /**
+     * Discards the database being built, leaving the target untouched.
+     */
+    public void abort() {
+        try {
+            if (mConnection != null) {
+                mConnection.close();
+            }
+        } catch (SQLException se) {
+        }
+
+        if (mStagingFile != null) {
+            mStagingFile.delete();
+        }
+    }
+
+    private void execute(Statement stmt, String query) throws SQLException {
+        System.err.println(query);
+        stmt.execute(query);
+    }
+}
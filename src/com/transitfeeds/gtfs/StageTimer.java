@@ -0,0 +1,42 @@
+package com.transitfeeds.gtfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accumulates the time the threads of one pipeline stage spend working and
+ * waiting on their neighbours. A stage that is busy while the others wait is
+ * the bottleneck.
+ */
+public class StageTimer {
+    private String mName;
+    private String mUnit;
+    private AtomicLong mBusy = new AtomicLong();
+    private AtomicLong mWaiting = new AtomicLong();
+    private AtomicLong mItems = new AtomicLong();
+
+    public StageTimer(String name, String unit) {
+        mName = name;
+        mUnit = unit;
+    }
+
+    public void busy(long nanos) {
+        mBusy.addAndGet(nanos);
+    }
+
+    public void waited(long nanos) {
+        mWaiting.addAndGet(nanos);
+    }
+
+    public void count(long items) {
+        mItems.addAndGet(items);
+    }
+
+    public long getItems() {
+        return mItems.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d %s in %.2fs, %.2fs waiting", mName, mItems.get(), mUnit, mBusy.get() / 1e9, mWaiting.get() / 1e9);
+    }
+}
@@ -0,0 +1,150 @@
+package com.transitfeeds.gtfs;
+
+import java.util.Arrays;
+
+/**
+ * Per-trip figures gathered from stop_times while it is loaded, so that the
+ * optimizer does not have to query them back one trip at a time. They are
+ * kept in arrays indexed by trip_index. Each thread that parses stop_times
+ * fills its own instance, and the instances are merged once it is loaded.
+ *
+ * For the first and last stop of each trip the departure and arrival are
+ * kept in seconds. Their text is only kept when it is not the HH:MM:SS form
+ * of the seconds, which it almost always is.
+ */
+public class TripStats {
+    // the value of a trip that has no stops
+    public static final int NONE = Integer.MIN_VALUE;
+
+    private int[] mFirstSequence = new int[0];
+    private int[] mLastSequence = new int[0];
+
+    private int[] mDepartureSecs = new int[0];
+    private int[] mArrivalSecs = new int[0];
+    private String[] mDepartureTimes = new String[0];
+    private String[] mArrivalTimes = new String[0];
+
+    private void ensureCapacity(int tripIndex) {
+        if (tripIndex >= mLastSequence.length) {
+            int length = Math.max(tripIndex + 1, mLastSequence.length * 2);
+            int[] lastSequence = Arrays.copyOf(mLastSequence, length);
+
+            Arrays.fill(lastSequence, mLastSequence.length, length, NONE);
+
+            mLastSequence = lastSequence;
+            mFirstSequence = Arrays.copyOf(mFirstSequence, length);
+            mDepartureSecs = Arrays.copyOf(mDepartureSecs, length);
+            mArrivalSecs = Arrays.copyOf(mArrivalSecs, length);
+            mDepartureTimes = Arrays.copyOf(mDepartureTimes, length);
+            mArrivalTimes = Arrays.copyOf(mArrivalTimes, length);
+        }
+    }
+
+    /**
+     * Adds a stop of a trip. The times are as given in stop_times and the
+     * seconds as parsed from them, -1 if they could not be.
+     */
+    public void addStop(int tripIndex, int stopSequence, CharSequence arrivalTime, int arrivalSecs, CharSequence departureTime, int departureSecs) {
+        ensureCapacity(tripIndex);
+
+        boolean first = mLastSequence[tripIndex] == NONE;
+
+        if (first || stopSequence < mFirstSequence[tripIndex]) {
+            mFirstSequence[tripIndex] = stopSequence;
+            mDepartureSecs[tripIndex] = departureSecs;
+            mDepartureTimes[tripIndex] = isFormatted(departureTime, departureSecs) ? null : departureTime.toString();
+        }
+
+        // of several stops with the same stop_sequence, the last one read is kept
+        if (first || stopSequence >= mLastSequence[tripIndex]) {
+            mLastSequence[tripIndex] = stopSequence;
+            mArrivalSecs[tripIndex] = arrivalSecs;
+            mArrivalTimes[tripIndex] = isFormatted(arrivalTime, arrivalSecs) ? null : arrivalTime.toString();
+        }
+    }
+
+    public boolean hasStops(int tripIndex) {
+        return tripIndex < mLastSequence.length && mLastSequence[tripIndex] != NONE;
+    }
+
+    /**
+     * Returns the highest stop_sequence of the trip, or NONE.
+     */
+    public int getLastSequence(int tripIndex) {
+        return tripIndex < mLastSequence.length ? mLastSequence[tripIndex] : NONE;
+    }
+
+    /**
+     * Returns the departure in seconds from the first stop of a trip that
+     * has stops.
+     */
+    public int getDepartureSecs(int tripIndex) {
+        return mDepartureSecs[tripIndex];
+    }
+
+    public String getDepartureTime(int tripIndex) {
+        String time = mDepartureTimes[tripIndex];
+        return time != null ? time : format(mDepartureSecs[tripIndex]);
+    }
+
+    /**
+     * Returns the arrival in seconds at the last stop of a trip that has
+     * stops.
+     */
+    public int getArrivalSecs(int tripIndex) {
+        return mArrivalSecs[tripIndex];
+    }
+
+    public String getArrivalTime(int tripIndex) {
+        String time = mArrivalTimes[tripIndex];
+        return time != null ? time : format(mArrivalSecs[tripIndex]);
+    }
+
+    /**
+     * Adds the stops counted by other to these.
+     */
+    public void merge(TripStats other) {
+        ensureCapacity(other.mLastSequence.length - 1);
+
+        for (int i = 0; i < other.mLastSequence.length; i++) {
+            if (other.mLastSequence[i] == NONE) {
+                continue;
+            }
+
+            boolean first = mLastSequence[i] == NONE;
+
+            if (first || other.mFirstSequence[i] < mFirstSequence[i]) {
+                mFirstSequence[i] = other.mFirstSequence[i];
+                mDepartureSecs[i] = other.mDepartureSecs[i];
+                mDepartureTimes[i] = other.mDepartureTimes[i];
+            }
+
+            if (first || other.mLastSequence[i] > mLastSequence[i]) {
+                mLastSequence[i] = other.mLastSequence[i];
+                mArrivalSecs[i] = other.mArrivalSecs[i];
+                mArrivalTimes[i] = other.mArrivalTimes[i];
+            }
+        }
+    }
+
+    /**
+     * Returns whether time is secs written as HH:MM:SS.
+     */
+    private static boolean isFormatted(CharSequence time, int secs) {
+        if (secs < 0 || secs >= 100 * 3600 || time.length() != 8) {
+            return false;
+        }
+
+        int hours = secs / 3600;
+        int minutes = secs / 60 % 60;
+        int seconds = secs % 60;
+
+        return time.charAt(0) == '0' + hours / 10 && time.charAt(1) == '0' + hours % 10 && time.charAt(2) == ':'
+                && time.charAt(3) == '0' + minutes / 10 && time.charAt(4) == '0' + minutes % 10 && time.charAt(5) == ':'
+                && time.charAt(6) == '0' + seconds / 10 && time.charAt(7) == '0' + seconds % 10;
+    }
+
+    private static String format(int secs) {
+        return String.format("%02d:%02d:%02d", secs / 3600, secs / 60 % 60, secs % 60);
+    }
+}